@@ -0,0 +1,61 @@
+package net.bagaja.chunktransformer;
+
+/**
+ * Derives blocks-per-tick, the per-tick commit budget and chunks-per-second from measured tick times,
+ * so the transformer only spends what is left below the target MSPT. The configured values act as
+ * hard caps. Measurements and {@link #update} run on the server thread; {@link #tryAdmit} runs on the
+ * chunk processor thread.
+ */
+public class AdaptiveThrottle {
+    private static final double SMOOTHING = 0.1;
+    private static final int MIN_BLOCKS_PER_TICK = 16;
+    private static final long MIN_BUDGET_NANOS = 100_000L;
+
+    private long tickStartNanos = 0;
+    // Moving averages: server work per tick excluding our commits, and our own cost per committed block
+    private double serverTickNanos = 0;
+    private double nanosPerBlock = 2_000;
+
+    private int blocksPerTick = MIN_BLOCKS_PER_TICK;
+    private long budgetNanos = MIN_BUDGET_NANOS;
+    private volatile int chunksPerSecond = 1;
+    private long nextAdmitNanos = 0;
+
+    public void onTickStart() {
+        tickStartNanos = System.nanoTime();
+    }
+
+    public void onServerWorkDone() {
+        if (tickStartNanos == 0) return;
+        serverTickNanos += (System.nanoTime() - tickStartNanos - serverTickNanos) * SMOOTHING;
+    }
+
+    public void recordCommit(int blocks, long nanos) {
+        if (blocks <= 0) return;
+        nanosPerBlock += ((double) nanos / blocks - nanosPerBlock) * SMOOTHING;
+    }
+
+    public void update(int maxBlocksCap, int chunksCap, long budgetCap, int targetMspt) {
+        long headroom = targetMspt * 1_000_000L - (long) serverTickNanos;
+        budgetNanos = Math.max(MIN_BUDGET_NANOS, Math.min(budgetCap, headroom));
+
+        int affordable = (int) Math.min(Integer.MAX_VALUE, (long) (budgetNanos / Math.max(1.0, nanosPerBlock)));
+        blocksPerTick = Math.max(Math.min(MIN_BLOCKS_PER_TICK, maxBlocksCap), Math.min(maxBlocksCap, affordable));
+
+        // Admit chunks in proportion to how much of the block cap we can currently afford
+        int chunks = (int) Math.round(chunksCap * (double) blocksPerTick / maxBlocksCap);
+        chunksPerSecond = Math.max(1, Math.min(chunksCap, chunks));
+    }
+
+    public boolean tryAdmit() {
+        long now = System.nanoTime();
+        if (now < nextAdmitNanos) return false;
+        nextAdmitNanos = now + 1_000_000_000L / chunksPerSecond;
+        return true;
+    }
+
+    public int getBlocksPerTick() { return blocksPerTick; }
+    public long getBudgetNanos() { return budgetNanos; }
+    public int getChunksPerSecond() { return chunksPerSecond; }
+    public double getServerTickMillis() { return serverTickNanos / 1_000_000.0; }
+}
@@ -0,0 +1,344 @@
+package net.bagaja.chunktransformer;
+
+import com.google.gson.Gson;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.Identifier;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Transforms a rectangle of chunks requested by {@code /chunktransformer transform}, row by row. Chunks
+ * are force-loaded (and generated if needed) at no more than the configured rate, with a bounded number
+ * in flight, and then go through the same snapshot, plan and commit stages as walk-in transforms, so the
+ * commit throttle still decides what a tick can afford. Each chunk is released again once its commit is
+ * done.
+ * <p>
+ * Progress is checkpointed as the lowest chunk index not yet finished, so a restart resumes from there
+ * and at most redoes the chunks that were in flight. The checkpoint lives in the world's own folder, so
+ * it is only ever resumed by the world it was started in. Server thread only.
+ */
+public class AreaTransformJob {
+    static final String CHECKPOINT_FILE = "chunktransformer_area_job.json";
+    private static final Gson GSON = new Gson();
+    private static final int MAX_IN_FLIGHT = 16;
+    // Chunks that were already transformed are skipped without using the rate, up to this many per tick
+    private static final int MAX_SKIPS_PER_TICK = 1024;
+    private static final long CHECKPOINT_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int PROGRESS_LOG_PERCENT = 5;
+
+    // What goes into the checkpoint file
+    private static class Checkpoint {
+        String dimension;
+        int minX;
+        int minZ;
+        int maxX;
+        int maxZ;
+        long next;
+        long[] forced;
+    }
+
+    /**
+     * What happened to a chunk handed to {@link ChunkTransformerMod#transformAreaChunk}.
+     */
+    enum Submit {
+        // Planning and committing, the callback follows
+        STARTED,
+        // Already transformed, by somebody walking in while it loaded
+        DONE,
+        // A walk-in transform is planning or committing it right now; asked again next tick
+        BUSY,
+        // No block to transform into, counted as failed
+        NO_TARGET
+    }
+
+    private static class PendingChunk {
+        final long chunkPos;
+        // Only chunks we force-loaded ourselves are released again, never ones an admin forced
+        final boolean forced;
+        boolean submitted;
+
+        PendingChunk(long chunkPos, boolean forced) {
+            this.chunkPos = chunkPos;
+            this.forced = forced;
+        }
+    }
+
+    private final Path checkpointPath;
+    final ResourceKey<Level> dimension;
+    final int minX;
+    final int minZ;
+    final int maxX;
+    final int maxZ;
+    private final int width;
+    final long total;
+
+    // Next index to load, and the loaded or loading chunks below it that are not finished yet
+    private long cursor;
+    private final TreeMap<Long, PendingChunk> pending = new TreeMap<>();
+    private long finished;
+    private long failed;
+    private final long resumedAt;
+    private final long startNanos = System.nanoTime();
+    private long nextIssueNanos = startNanos;
+    private long lastCheckpointNanos = startNanos;
+    private boolean dirty = true;
+    private int lastLoggedPercent;
+
+    AreaTransformJob(MinecraftServer server, ResourceKey<Level> dimension, int fromX, int fromZ, int toX, int toZ) {
+        this(checkpointPath(server), dimension, Math.min(fromX, toX), Math.min(fromZ, toZ), Math.max(fromX, toX),
+                Math.max(fromZ, toZ), 0);
+    }
+
+    private AreaTransformJob(Path checkpointPath, ResourceKey<Level> dimension, int minX, int minZ, int maxX, int maxZ, long next) {
+        this.checkpointPath = checkpointPath;
+        this.dimension = dimension;
+        this.minX = minX;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxZ = maxZ;
+        this.width = maxX - minX + 1;
+        this.total = (long) width * (maxZ - minZ + 1);
+        this.cursor = Math.max(0, Math.min(next, total));
+        this.finished = cursor;
+        this.resumedAt = cursor;
+        this.lastLoggedPercent = percent() / PROGRESS_LOG_PERCENT * PROGRESS_LOG_PERCENT;
+    }
+
+    private static Path checkpointPath(MinecraftServer server) {
+        return server.getWorldPath(LevelResource.ROOT).resolve(CHECKPOINT_FILE);
+    }
+
+    static long chunkCount(int fromX, int fromZ, int toX, int toZ) {
+        return (long) (Math.abs(toX - fromX) + 1) * (Math.abs(toZ - fromZ) + 1);
+    }
+
+    /**
+     * Loads, submits and releases chunks for one tick; returns true once every chunk is finished.
+     */
+    boolean tick(MinecraftServer server) {
+        ServerLevel level = server.getLevel(dimension);
+        if (level == null) {
+            ChunkTransformerMod.LOGGER.error("Area transform stopped, dimension {} is gone", dimension.identifier());
+            return true;
+        }
+
+        issueChunks(level);
+
+        List<Map.Entry<Long, PendingChunk>> loaded = new ArrayList<>();
+        for (Map.Entry<Long, PendingChunk> entry : pending.entrySet()) {
+            PendingChunk chunk = entry.getValue();
+            if (!chunk.submitted && level.getChunkSource().getChunkNow(ChunkPos.getX(chunk.chunkPos), ChunkPos.getZ(chunk.chunkPos)) != null) {
+                loaded.add(entry);
+            }
+        }
+        // Submitting can finish a chunk right away, so the map is not touched while iterating it
+        for (Map.Entry<Long, PendingChunk> entry : loaded) {
+            long index = entry.getKey();
+            PendingChunk chunk = entry.getValue();
+            chunk.submitted = true;
+            Submit result = ChunkTransformerMod.transformAreaChunk(level, chunk.chunkPos,
+                    transformed -> server.execute(() -> onChunkFinished(level, index, transformed)));
+            switch (result) {
+                case DONE -> onChunkFinished(level, index, true);
+                case BUSY -> chunk.submitted = false;
+                case NO_TARGET -> onChunkFinished(level, index, false);
+                default -> {}
+            }
+        }
+
+        logProgress();
+        long now = System.nanoTime();
+        if (dirty && now - lastCheckpointNanos >= CHECKPOINT_INTERVAL_NANOS) {
+            saveCheckpoint();
+            lastCheckpointNanos = now;
+        }
+        return finished >= total;
+    }
+
+    private void issueChunks(ServerLevel level) {
+        long now = System.nanoTime();
+        // Don't let a long stall turn into a burst afterwards
+        nextIssueNanos = Math.max(nextIssueNanos, now - 1_000_000_000L);
+        long intervalNanos = 1_000_000_000L / ChunkTransformerMod.getAreaChunksPerSecond();
+        int skipped = 0;
+        while (cursor < total && pending.size() < MAX_IN_FLIGHT) {
+            long chunkPos = chunkPosAt(cursor);
+            if (ChunkTransformerMod.isChunkTransformed(level, chunkPos)) {
+                if (++skipped > MAX_SKIPS_PER_TICK) break;
+                cursor++;
+                finished++;
+                dirty = true;
+                continue;
+            }
+            if (now < nextIssueNanos) break;
+            nextIssueNanos += intervalNanos;
+
+            int x = ChunkPos.getX(chunkPos);
+            int z = ChunkPos.getZ(chunkPos);
+            boolean force = !level.getForceLoadedChunks().contains(chunkPos);
+            if (force) {
+                // The ticket loads the chunk in the background; it is picked up once getChunkNow sees it
+                level.setChunkForced(x, z, true);
+            }
+            pending.put(cursor++, new PendingChunk(chunkPos, force));
+            dirty = true;
+        }
+    }
+
+    private void onChunkFinished(ServerLevel level, long index, boolean transformed) {
+        PendingChunk chunk = pending.remove(index);
+        if (chunk == null) return;
+        release(level, chunk);
+        finished++;
+        if (!transformed) failed++;
+        dirty = true;
+    }
+
+    /**
+     * Releases every chunk this job force-loaded. Chunks already submitted still finish if they stay loaded.
+     */
+    void cancel(MinecraftServer server) {
+        ServerLevel level = server.getLevel(dimension);
+        if (level != null) {
+            pending.values().forEach(chunk -> release(level, chunk));
+        }
+        pending.clear();
+    }
+
+    /**
+     * Checkpoints and releases everything, for a server that is shutting down.
+     */
+    void suspend(MinecraftServer server) {
+        saveCheckpoint();
+        cancel(server);
+    }
+
+    private static void release(ServerLevel level, PendingChunk chunk) {
+        if (chunk.forced) {
+            level.setChunkForced(ChunkPos.getX(chunk.chunkPos), ChunkPos.getZ(chunk.chunkPos), false);
+        }
+    }
+
+    private long chunkPosAt(long index) {
+        return ChunkPos.asLong(minX + (int) (index % width), minZ + (int) (index / width));
+    }
+
+    long getFinished() { return finished; }
+    long getFailed() { return failed; }
+
+    int percent() {
+        return (int) (finished * 100 / Math.max(1, total));
+    }
+
+    /**
+     * Chunks per second since the job started or was resumed.
+     */
+    double rate() {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return seconds > 0 ? (finished - resumedAt) / seconds : 0;
+    }
+
+    /**
+     * Estimated seconds left, or -1 while there is no rate to go by yet.
+     */
+    long etaSeconds() {
+        double rate = rate();
+        return rate > 0 ? (long) ((total - finished) / rate) : -1;
+    }
+
+    String describe() {
+        long eta = etaSeconds();
+        return String.format("%s chunks %d,%d to %d,%d: %d/%d done (%d%%), %d failed, %.1f chunks/s, ETA %s",
+                dimension.identifier(), minX, minZ, maxX, maxZ, finished, total, percent(), failed, rate(),
+                eta < 0 ? "unknown" : formatDuration(eta));
+    }
+
+    private void logProgress() {
+        int percent = percent();
+        if (percent >= lastLoggedPercent + PROGRESS_LOG_PERCENT) {
+            lastLoggedPercent = percent / PROGRESS_LOG_PERCENT * PROGRESS_LOG_PERCENT;
+            ChunkTransformerMod.LOGGER.info("Area transform progress: {}", describe());
+        }
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) return String.format("%dh %02dm", seconds / 3600, seconds % 3600 / 60);
+        if (seconds >= 60) return String.format("%dm %02ds", seconds / 60, seconds % 60);
+        return seconds + "s";
+    }
+
+    void saveCheckpoint() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.dimension = dimension.identifier().toString();
+        checkpoint.minX = minX;
+        checkpoint.minZ = minZ;
+        checkpoint.maxX = maxX;
+        checkpoint.maxZ = maxZ;
+        // Everything below the oldest unfinished chunk is done
+        checkpoint.next = pending.isEmpty() ? cursor : pending.firstKey();
+        checkpoint.forced = pending.values().stream().filter(chunk -> chunk.forced).mapToLong(chunk -> chunk.chunkPos).toArray();
+        try {
+            Files.createDirectories(checkpointPath.getParent());
+            Path temp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp)) {
+                GSON.toJson(checkpoint, writer);
+            }
+            Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            ChunkTransformerMod.LOGGER.error("Failed to save area transform checkpoint", e);
+        }
+    }
+
+    void deleteCheckpoint() {
+        try {
+            Files.deleteIfExists(checkpointPath);
+        } catch (IOException e) {
+            ChunkTransformerMod.LOGGER.error("Failed to delete area transform checkpoint", e);
+        }
+    }
+
+    /**
+     * Restores the job from the server's world checkpoint, if there is one. Chunks it had force-loaded
+     * when the checkpoint was written are released first; the resumed job loads them again as it gets there.
+     */
+    static AreaTransformJob resume(MinecraftServer server) {
+        Path checkpointPath = checkpointPath(server);
+        if (!Files.exists(checkpointPath)) return null;
+        try (Reader reader = Files.newBufferedReader(checkpointPath)) {
+            Checkpoint checkpoint = GSON.fromJson(reader, Checkpoint.class);
+            if (checkpoint == null || checkpoint.dimension == null) return null;
+
+            ResourceKey<Level> dimension = ResourceKey.create(Registries.DIMENSION, Identifier.parse(checkpoint.dimension));
+            ServerLevel level = server.getLevel(dimension);
+            if (level == null) {
+                ChunkTransformerMod.LOGGER.error("Can't resume area transform, dimension {} does not exist", checkpoint.dimension);
+                return null;
+            }
+            if (checkpoint.forced != null) {
+                for (long chunkPos : checkpoint.forced) {
+                    level.setChunkForced(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos), false);
+                }
+            }
+            return new AreaTransformJob(checkpointPath, dimension, checkpoint.minX, checkpoint.minZ, checkpoint.maxX, checkpoint.maxZ, checkpoint.next);
+        } catch (Exception e) {
+            ChunkTransformerMod.LOGGER.error("Failed to load area transform checkpoint", e);
+            return null;
+        }
+    }
+}
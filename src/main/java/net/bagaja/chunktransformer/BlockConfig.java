@@ -3,6 +3,7 @@ package net.bagaja.chunktransformer;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.FallingBlock;
 import net.minecraftforge.fml.loading.FMLPaths;
@@ -12,14 +13,40 @@ import java.io.*;
 import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BlockConfig {
     private static final Path CONFIG_PATH = FMLPaths.CONFIGDIR.get().resolve("chunktransformer_blocks.json");
+    private static final Path SKIP_CONFIG_PATH = FMLPaths.CONFIGDIR.get().resolve("chunktransformer_skip_blocks.json");
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private Map<String, Boolean> blockStates = new HashMap<>();
+    // Blocks that are never replaced, on top of the built-in ones (air, spawners, portal frames, fluids)
+    private volatile Set<String> skipBlocks = Set.of();
+    // Bumped on every change so derived tables know when to rebuild; changes come from the config screen
+    // and from commands, so the bump has to be atomic
+    private final AtomicInteger version = new AtomicInteger();
+    // Bumped only when skip results can change: the skip list, or the registry ids behind the skip table
+    private final AtomicInteger skipVersion = new AtomicInteger();
+    private volatile CompiledBlocks compiled = null;
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+
+    // Immutable enabled bit per block, indexed by registry id; republished whole on every change
+    private static final class CompiledBlocks {
+        final long[] enabled;
+        final int size;
+
+        CompiledBlocks(long[] enabled, int size) {
+            this.enabled = enabled;
+            this.size = size;
+        }
+    }
 
     public BlockConfig() {
         // Initialize with default values
@@ -37,11 +64,68 @@ public class BlockConfig {
         save();
     }
 
+    public Set<String> getSkipBlocks() {
+        return skipBlocks;
+    }
+
+    public void setSkipBlocks(Set<String> blockIds) {
+        skipBlocks = Set.copyOf(blockIds);
+        saveSkipBlocks();
+        skipVersion.incrementAndGet();
+        notifyChanged();
+    }
+
+    public int getVersion() {
+        return version.get();
+    }
+
+    public int getSkipVersion() {
+        return skipVersion.get();
+    }
+
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    private void notifyChanged() {
+        version.incrementAndGet();
+        changeListeners.forEach(Runnable::run);
+    }
+
     public boolean isBlockEnabled(Block block) {
+        CompiledBlocks blocks = compiled;
+        int id = BuiltInRegistries.BLOCK.getId(block);
+        if (blocks != null && id >= 0 && id < blocks.size) {
+            return (blocks.enabled[id >>> 6] & (1L << id)) != 0;
+        }
         String blockId = Objects.requireNonNull(ForgeRegistries.BLOCKS.getKey(block)).toString();
         return blockStates.getOrDefault(blockId, true);
     }
 
+    /**
+     * Rebuilds the id-indexed table. The constructor runs before modded blocks are registered, so this
+     * has to run again once the registry is frozen and whenever ids are remapped.
+     */
+    public void compile() {
+        compileEnabled();
+        skipVersion.incrementAndGet();
+        notifyChanged();
+    }
+
+    private void compileEnabled() {
+        int size = BuiltInRegistries.BLOCK.size();
+        long[] enabled = new long[(size + 63) >>> 6];
+        for (Block block : BuiltInRegistries.BLOCK) {
+            int id = BuiltInRegistries.BLOCK.getId(block);
+            if (id < 0 || id >= size) continue;
+            String blockId = Objects.requireNonNull(ForgeRegistries.BLOCKS.getKey(block)).toString();
+            if (blockStates.getOrDefault(blockId, true)) {
+                enabled[id >>> 6] |= 1L << id;
+            }
+        }
+        compiled = new CompiledBlocks(enabled, size);
+    }
+
     public Map<String, Boolean> getBlockStates() {
         return blockStates;
     }
@@ -60,9 +144,28 @@ public class BlockConfig {
         } else {
             save(); // Create default config file
         }
+
+        if (Files.exists(SKIP_CONFIG_PATH)) {
+            try (Reader reader = Files.newBufferedReader(SKIP_CONFIG_PATH)) {
+                Type type = new TypeToken<List<String>>(){}.getType();
+                List<String> loadedSkipBlocks = GSON.fromJson(reader, type);
+                if (loadedSkipBlocks != null) {
+                    skipBlocks = Set.copyOf(loadedSkipBlocks);
+                }
+            } catch (IOException e) {
+                ChunkTransformerMod.LOGGER.error("Failed to load skip block configuration", e);
+            }
+        } else {
+            saveSkipBlocks();
+        }
+        compile();
     }
 
     public void save() {
+        // Every mutation (toggleBlock, or callers editing getBlockStates directly) ends with save().
+        // Enabling or disabling blocks never changes what is skipped, so the skip table is left alone
+        compileEnabled();
+        notifyChanged();
         try {
             Files.createDirectories(CONFIG_PATH.getParent());
             try (Writer writer = Files.newBufferedWriter(CONFIG_PATH)) {
@@ -72,4 +175,15 @@ public class BlockConfig {
             ChunkTransformerMod.LOGGER.error("Failed to save block configuration", e);
         }
     }
+
+    private void saveSkipBlocks() {
+        try {
+            Files.createDirectories(SKIP_CONFIG_PATH.getParent());
+            try (Writer writer = Files.newBufferedWriter(SKIP_CONFIG_PATH)) {
+                GSON.toJson(new ArrayList<>(skipBlocks), writer);
+            }
+        } catch (IOException e) {
+            ChunkTransformerMod.LOGGER.error("Failed to save skip block configuration", e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+
+import java.util.List;
+
+/**
+ * Stateless, deterministic choice of a chunk's replacement block from world seed, dimension and chunk
+ * position. The same inputs always give the same block, so results can be recomputed on any thread
+ * instead of being stored, as long as the candidate list keeps a stable order.
+ */
+public final class BlockSelector {
+    private BlockSelector() {}
+
+    public static Block select(long worldSeed, ResourceKey<Level> dimension, long chunkPos, List<Block> candidates) {
+        return candidates.get(index(worldSeed, dimension, chunkPos, candidates.size()));
+    }
+
+    public static int index(long worldSeed, ResourceKey<Level> dimension, long chunkPos, int candidateCount) {
+        return index(worldSeed, dimension.identifier().toString(), chunkPos, candidateCount);
+    }
+
+    /**
+     * Same as above with the dimension given by its id, e.g. {@code minecraft:overworld}; used where no
+     * level is around, like offline region transforms.
+     */
+    public static int index(long worldSeed, String dimensionId, long chunkPos, int candidateCount) {
+        long hash = mix(worldSeed ^ mix(dimensionId.hashCode()) ^ mix(chunkPos));
+        // Multiply-high maps the top 32 bits onto [0, candidateCount) without modulo bias worth caring about
+        return (int) (((hash >>> 32) * candidateCount) >>> 32);
+    }
+
+    // SplitMix64 finaliser
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,109 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.world.level.ChunkPos;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of chunk positions ({@link ChunkPos#toLong()} keys) stored as one 32x32 bitmap per region, so
+ * dense areas cost about one bit per chunk instead of a boxed {@code Long} per chunk. Reads are
+ * lock-free and writes are single CAS operations, so any thread may use it.
+ */
+public class ChunkBitmapSet {
+    private static final int REGION_SHIFT = 5;
+    private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+    private static final int WORDS_PER_REGION = (1 << (REGION_SHIFT * 2)) / Long.SIZE;
+
+    private final Map<Long, AtomicLongArray> regions = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public boolean contains(long chunkPos) {
+        AtomicLongArray bits = regions.get(regionKey(chunkPos));
+        if (bits == null) return false;
+        int bit = bitIndex(chunkPos);
+        return (bits.get(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    public boolean add(long chunkPos) {
+        AtomicLongArray bits = regions.computeIfAbsent(regionKey(chunkPos), k -> new AtomicLongArray(WORDS_PER_REGION));
+        int bit = bitIndex(chunkPos);
+        long mask = 1L << bit;
+        long previous = bits.getAndUpdate(bit >>> 6, word -> word | mask);
+        if ((previous & mask) != 0) return false;
+        size.incrementAndGet();
+        return true;
+    }
+
+    public boolean remove(long chunkPos) {
+        AtomicLongArray bits = regions.get(regionKey(chunkPos));
+        if (bits == null) return false;
+        int bit = bitIndex(chunkPos);
+        long mask = 1L << bit;
+        long previous = bits.getAndUpdate(bit >>> 6, word -> word & ~mask);
+        if ((previous & mask) == 0) return false;
+        size.decrementAndGet();
+        return true;
+    }
+
+    public void addAll(long[] chunkPositions) {
+        for (long chunkPos : chunkPositions) {
+            add(chunkPos);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        regions.clear();
+        size.set(0);
+    }
+
+    public void forEach(LongConsumer action) {
+        regions.forEach((regionKey, bits) -> {
+            int regionX = (int) (regionKey >> 32);
+            int regionZ = (int) (long) regionKey;
+            for (int word = 0; word < WORDS_PER_REGION; word++) {
+                long value = bits.get(word);
+                while (value != 0) {
+                    int bit = (word << 6) | Long.numberOfTrailingZeros(value);
+                    value &= value - 1;
+                    int x = (regionX << REGION_SHIFT) | (bit & REGION_MASK);
+                    int z = (regionZ << REGION_SHIFT) | (bit >>> REGION_SHIFT);
+                    action.accept(ChunkPos.asLong(x, z));
+                }
+            }
+        });
+    }
+
+    public long[] toLongArray() {
+        long[] result = new long[size()];
+        int[] count = {0};
+        forEach(chunkPos -> {
+            if (count[0] < result.length) {
+                result[count[0]++] = chunkPos;
+            }
+        });
+        return count[0] == result.length ? result : Arrays.copyOf(result, count[0]);
+    }
+
+    private static long regionKey(long chunkPos) {
+        long regionX = ChunkPos.getX(chunkPos) >> REGION_SHIFT;
+        long regionZ = ChunkPos.getZ(chunkPos) >> REGION_SHIFT;
+        return (regionX << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+
+    private static int bitIndex(long chunkPos) {
+        return ((ChunkPos.getZ(chunkPos) & REGION_MASK) << REGION_SHIFT) | (ChunkPos.getX(chunkPos) & REGION_MASK);
+    }
+}
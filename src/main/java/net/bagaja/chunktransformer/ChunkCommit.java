@@ -0,0 +1,135 @@
+package net.bagaja.chunktransformer;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+/**
+ * What one chunk's commit still owes the rest of the game once its blocks are written: client updates
+ * according to its {@link SectionTransformer.ClientSync} mode, and light checks. Light is not touched
+ * while cells are written; the cells that need it are remembered per section and handed to the light
+ * engine by {@link #finish} once the last cell is written, followed by the heightmaps and the neighbour
+ * updates of {@link SectionTransformer.NeighborUpdates}. Finishing is budgeted like writing the cells,
+ * so a big chunk spreads it over several ticks. Server thread only.
+ */
+public class ChunkCommit {
+    private enum Stage {
+        RELIGHT, CHUNK, NEIGHBORS, DONE
+    }
+
+    final SectionTransformer.ClientSync clientSync;
+    // Changes of the section being committed, sent once it is finished; SECTIONS sync only
+    private final ShortSet sectionChanges;
+    // Per section index: one bit per cell that needs a light check, allocated on first use
+    private final long[][] relightCells;
+    private final boolean[] touchedSections;
+    // Per section index: one bit per replaced cell; only kept when neighbours get notified
+    private final long[][] changedCells;
+    private final SectionTransformer.CellCursor cursor = new SectionTransformer.CellCursor();
+    private Stage stage = Stage.RELIGHT;
+    // Neighbours already told about this commit, while its neighbour updates run
+    private LongOpenHashSet notified;
+
+    public ChunkCommit(SectionTransformer.ClientSync clientSync, int sectionCount) {
+        this.clientSync = clientSync;
+        this.sectionChanges = clientSync == SectionTransformer.ClientSync.SECTIONS ? new ShortOpenHashSet() : null;
+        this.relightCells = new long[sectionCount][];
+        this.touchedSections = new boolean[sectionCount];
+        this.changedCells = ChunkTransformerMod.getNeighborUpdates() != SectionTransformer.NeighborUpdates.NONE
+                ? new long[sectionCount][] : null;
+    }
+
+    void recordChange(ServerChunkCache chunkSource, int sectionIndex, int cell, BlockPos pos) {
+        touchedSections[sectionIndex] = true;
+        if (changedCells != null) {
+            setBit(changedCells, sectionIndex, cell);
+        }
+        if (clientSync == SectionTransformer.ClientSync.BLOCKS) {
+            chunkSource.blockChanged(pos);
+        } else if (sectionChanges != null) {
+            sectionChanges.add(SectionPos.sectionRelativePos(pos));
+        }
+    }
+
+    void markRelight(int sectionIndex, int cell) {
+        setBit(relightCells, sectionIndex, cell);
+    }
+
+    /**
+     * Called after the last cell of a section was written.
+     */
+    public void finishSection(LevelChunk chunk, int sectionIndex) {
+        if (sectionChanges == null) return;
+        SectionTransformer.sendSectionChanges(chunk, sectionIndex, sectionChanges);
+        sectionChanges.clear();
+    }
+
+    /**
+     * Schedules the remembered light checks and updates section light status, then updates heightmaps
+     * and resends the chunk if it was written silently, then notifies neighbours. Stops once
+     * {@code maxCells} cells were handled or {@code deadlineNanos} passed, and returns how many were;
+     * call again until {@link #isFinished}.
+     */
+    public int finish(LevelChunk chunk, BlockState targetBlockState, int maxCells, long deadlineNanos) {
+        int processed = 0;
+        while (stage != Stage.DONE && processed < maxCells) {
+            switch (stage) {
+                case RELIGHT -> {
+                    processed += SectionTransformer.relight(chunk, relightCells, cursor, targetBlockState,
+                            maxCells - processed, deadlineNanos);
+                    if (cursor.isDone()) {
+                        SectionTransformer.updateSectionStatus(chunk, touchedSections);
+                        stage = Stage.CHUNK;
+                    }
+                }
+                case CHUNK -> {
+                    SectionTransformer.finishChunk(chunk, clientSync);
+                    processed++;
+                    if (changedCells != null) {
+                        cursor.reset();
+                        notified = new LongOpenHashSet();
+                        stage = Stage.NEIGHBORS;
+                    } else {
+                        stage = Stage.DONE;
+                    }
+                }
+                case NEIGHBORS -> {
+                    processed += SectionTransformer.updateNeighbors(chunk, changedCells, cursor, notified,
+                            targetBlockState, maxCells - processed, deadlineNanos);
+                    if (cursor.isDone()) {
+                        notified = null;
+                        stage = Stage.DONE;
+                    }
+                }
+                default -> throw new IllegalStateException("Unexpected stage " + stage);
+            }
+            if (System.nanoTime() >= deadlineNanos) break;
+        }
+        return processed;
+    }
+
+    public boolean isFinished() {
+        return stage == Stage.DONE;
+    }
+
+    /**
+     * Settles a chunk that is unloading partway through its commit, see {@link SectionTransformer#abandonChunk}.
+     * Clients tracking it are gone by then and neighbours are left alone.
+     */
+    public void abandon(LevelChunk chunk) {
+        SectionTransformer.abandonChunk(chunk);
+    }
+
+    private static void setBit(long[][] sections, int sectionIndex, int cell) {
+        long[] bits = sections[sectionIndex];
+        if (bits == null) {
+            bits = sections[sectionIndex] = new long[64];
+        }
+        bits[cell >> 6] |= 1L << cell;
+    }
+}
@@ -0,0 +1,136 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraftforge.event.level.ChunkDataEvent;
+import net.minecraftforge.event.level.ChunkEvent;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Keeps the "transformed" flag (and the chosen block) in each chunk's own NBT, so it is loaded and
+ * saved together with the chunk instead of living in a per-world file. While a chunk is loaded its flag
+ * sits in the same {@link ChunkBitmapSet} the transformer already checks; it is dropped again a while
+ * after the chunk unloads, since Forge fires the unload event before the chunk is written.
+ * <p>
+ * Only chunks recorded through {@link #recordTarget}, after their commit finished, or loaded with the
+ * flag are written back. The chunk set can also hold chunks that are merely queued, and those must
+ * never reach disk as transformed.
+ */
+public class ChunkDataStore {
+    private static final String DATA_KEY = ChunkTransformerMod.MODID;
+    private static final long RELEASE_DELAY_NANOS = 30_000_000_000L;
+
+    private final Function<String, ChunkBitmapSet> chunkSets;
+    // Chosen block id per loaded, committed chunk; empty when the block is not known or not needed
+    private final Map<String, Map<Long, String>> targetBlocks = new ConcurrentHashMap<>();
+    // Unloaded chunks waiting to be released, with the time they unloaded
+    private final Map<String, Map<Long, Long>> pendingReleases = new ConcurrentHashMap<>();
+
+    public ChunkDataStore(Function<String, ChunkBitmapSet> chunkSets) {
+        this.chunkSets = chunkSets;
+    }
+
+    /**
+     * Records a chunk whose transform was committed, so it is flagged when the chunk is next saved.
+     */
+    public void recordTarget(String worldId, long chunkPos, BlockState targetBlockState) {
+        // Deterministic selection can recompute the block, so only the flag is needed then
+        String blockId = ChunkTransformerMod.isDeterministicSelection()
+                ? "" : Objects.requireNonNull(ForgeRegistries.BLOCKS.getKey(targetBlockState.getBlock())).toString();
+        targetBlocks.computeIfAbsent(worldId, k -> new ConcurrentHashMap<>()).put(chunkPos, blockId);
+    }
+
+    /**
+     * Records a chunk known as transformed from the journal, without overriding a block read from its tag.
+     */
+    public void recordMigrated(String worldId, long chunkPos) {
+        targetBlocks.computeIfAbsent(worldId, k -> new ConcurrentHashMap<>()).putIfAbsent(chunkPos, "");
+    }
+
+    public void onChunkLoad(ChunkDataEvent.Load event) {
+        // Read in journal mode too, chunks transformed offline by RegionTransformer only carry this tag
+        if (!ChunkTransformerMod.shouldSaveChunkTransformations() || !(event.getLevel() instanceof Level level) || level.isClientSide()) return;
+
+        String worldId = ChunkTransformerMod.getWorldIdentifier(level);
+        long chunkPos = event.getChunk().getPos().toLong();
+        event.getData().getCompound(DATA_KEY).ifPresent(tag -> {
+            if (!tag.getBooleanOr("transformed", false)) return;
+            chunkSets.apply(worldId).add(chunkPos);
+            cancelRelease(worldId, chunkPos);
+            targetBlocks.computeIfAbsent(worldId, k -> new ConcurrentHashMap<>()).put(chunkPos, tag.getStringOr("block", ""));
+        });
+    }
+
+    public void onChunkSave(ChunkDataEvent.Save event) {
+        // Written in journal mode too, so a tag read on load survives the chunk's next save
+        if (!ChunkTransformerMod.shouldSaveChunkTransformations() || !(event.getLevel() instanceof Level level) || level.isClientSide()) return;
+
+        String worldId = ChunkTransformerMod.getWorldIdentifier(level);
+        long chunkPos = event.getChunk().getPos().toLong();
+        Map<Long, String> worldTargets = targetBlocks.get(worldId);
+        String blockId = worldTargets != null ? worldTargets.get(chunkPos) : null;
+        if (blockId == null) return;
+
+        CompoundTag tag = new CompoundTag();
+        tag.putBoolean("transformed", true);
+        if (!blockId.isEmpty() && !ChunkTransformerMod.isDeterministicSelection()) {
+            tag.putString("block", blockId);
+        }
+        event.getData().put(DATA_KEY, tag);
+    }
+
+    public void onChunkUnload(ChunkEvent.Unload event) {
+        if (!ChunkTransformerMod.shouldSaveChunkTransformations() || !(event.getLevel() instanceof Level level) || level.isClientSide()) return;
+
+        String worldId = ChunkTransformerMod.getWorldIdentifier(level);
+        pendingReleases.computeIfAbsent(worldId, k -> new ConcurrentHashMap<>())
+                .put(event.getChunk().getPos().toLong(), System.nanoTime());
+    }
+
+    /**
+     * Drops the in-memory flag of chunks that unloaded long enough ago to have been saved. Server thread.
+     */
+    public void tick() {
+        long now = System.nanoTime();
+        pendingReleases.forEach((worldId, releases) -> {
+            // In journal mode the chunk set is the journal's and stays complete, only the targets go
+            ChunkBitmapSet chunks = isActive() ? chunkSets.apply(worldId) : null;
+            Map<Long, String> worldTargets = targetBlocks.get(worldId);
+            Iterator<Map.Entry<Long, Long>> iterator = releases.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> release = iterator.next();
+                if (now - release.getValue() < RELEASE_DELAY_NANOS) continue;
+                if (chunks != null) {
+                    chunks.remove(release.getKey());
+                }
+                if (worldTargets != null) {
+                    worldTargets.remove(release.getKey());
+                }
+                iterator.remove();
+            }
+        });
+    }
+
+    public void clear() {
+        targetBlocks.clear();
+        pendingReleases.clear();
+    }
+
+    private void cancelRelease(String worldId, long chunkPos) {
+        Map<Long, Long> releases = pendingReleases.get(worldId);
+        if (releases != null) {
+            releases.remove(chunkPos);
+        }
+    }
+
+    private static boolean isActive() {
+        return ChunkTransformerMod.shouldSaveChunkTransformations() && ChunkTransformerMod.isChunkDataPersistence();
+    }
+}
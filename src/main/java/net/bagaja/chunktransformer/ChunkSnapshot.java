@@ -0,0 +1,32 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+/**
+ * Private copy of a chunk's block states. Captured on the server thread, then handed to planner
+ * threads so they never read the live {@link LevelChunk}.
+ */
+public class ChunkSnapshot {
+    final long chunkPos;
+    // One copy per section, null for sections that held only air or skip-listed states when captured
+    final PalettedContainer<BlockState>[] sections;
+
+    private ChunkSnapshot(long chunkPos, PalettedContainer<BlockState>[] sections) {
+        this.chunkPos = chunkPos;
+        this.sections = sections;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static ChunkSnapshot capture(LevelChunk chunk) {
+        LevelChunkSection[] liveSections = chunk.getSections();
+        PalettedContainer<BlockState>[] copies = new PalettedContainer[liveSections.length];
+        for (int i = 0; i < liveSections.length; i++) {
+            if (SectionTransformer.isUntouchable(liveSections[i])) continue;
+            copies[i] = liveSections[i].getStates().copy();
+        }
+        return new ChunkSnapshot(chunk.getPos().toLong(), copies);
+    }
+}
@@ -0,0 +1,45 @@
+package net.bagaja.chunktransformer;
+
+import com.mojang.serialization.Codec;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.WorldGenLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.levelgen.feature.Feature;
+import net.minecraft.world.level.levelgen.feature.FeaturePlaceContext;
+import net.minecraft.world.level.levelgen.feature.configurations.NoneFeatureConfiguration;
+
+/**
+ * Generation-time transform. Runs once per chunk in the last decoration step, while the chunk is still a
+ * proto chunk: before lighting and before any client has seen it, so none of the post-hoc relight,
+ * neighbour updates or block-change packets are needed for the bulk of the chunk. Features of neighbouring
+ * chunks can still place blocks into it afterwards, so the chunk is only marked as transformed after a
+ * small follow-up commit once it is full. Does nothing unless generation-time transforms are enabled.
+ */
+public class ChunkTransformFeature extends Feature<NoneFeatureConfiguration> {
+    public ChunkTransformFeature(Codec<NoneFeatureConfiguration> codec) {
+        super(codec);
+    }
+
+    @Override
+    public boolean place(FeaturePlaceContext<NoneFeatureConfiguration> context) {
+        if (!ChunkTransformerMod.isGenerationTimeTransform()) return false;
+
+        WorldGenLevel worldGenLevel = context.level();
+        ServerLevel level = worldGenLevel.getLevel();
+        ChunkAccess chunk = worldGenLevel.getChunk(context.origin());
+        long chunkPos = chunk.getPos().toLong();
+
+        try {
+            BlockState targetBlockState = ChunkTransformerMod.chooseTargetBlock(level, chunkPos);
+            if (targetBlockState == null) return false;
+
+            SectionTransformer.transformGenerating(chunk, targetBlockState);
+            ChunkTransformerMod.rememberGeneratedTarget(level, chunkPos, targetBlockState);
+            return true;
+        } catch (Exception e) {
+            ChunkTransformerMod.LOGGER.error("Error during generation-time chunk transformation", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package net.bagaja.chunktransformer;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.LongArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import it.unimi.dsi.fastutil.booleans.BooleanConsumer;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.commands.arguments.DimensionArgument;
+import net.minecraft.commands.arguments.coordinates.ColumnPosArgument;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ColumnPos;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * {@code /chunktransformer transform <from> <to> [dimension]} queues the chunks covering two block columns
+ * as an {@link AreaTransformJob}; {@code status} and {@code cancel} report on and stop the running one.
+ * {@code /chunktransformer stats} shows the {@link TransformMetrics}, {@code stats reset} clears them.
+ * {@code /chunktransformer config <setting> [value]} shows or changes a performance setting that has no
+ * place on the config screen; the setter clamps and saves it like the screen does.
+ */
+public final class ChunkTransformerCommands {
+    private static final long MAX_AREA_CHUNKS = 4_000_000L;
+
+    private ChunkTransformerCommands() {}
+
+    static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal(ChunkTransformerMod.MODID)
+                .requires(Commands.hasPermission(Commands.LEVEL_GAMEMASTERS))
+                .then(config())
+                .then(Commands.literal("stats")
+                        .executes(context -> stats(context.getSource()))
+                        .then(Commands.literal("reset").executes(context -> resetStats(context.getSource()))))
+                .then(Commands.literal("transform")
+                        .then(Commands.literal("status").executes(context -> status(context.getSource())))
+                        .then(Commands.literal("cancel").executes(context -> cancel(context.getSource())))
+                        .then(Commands.argument("from", ColumnPosArgument.columnPos())
+                                .then(Commands.argument("to", ColumnPosArgument.columnPos())
+                                        .executes(context -> start(context.getSource(),
+                                                ColumnPosArgument.getColumnPos(context, "from"),
+                                                ColumnPosArgument.getColumnPos(context, "to"),
+                                                context.getSource().getLevel()))
+                                        .then(Commands.argument("dimension", DimensionArgument.dimension())
+                                                .executes(context -> start(context.getSource(),
+                                                        ColumnPosArgument.getColumnPos(context, "from"),
+                                                        ColumnPosArgument.getColumnPos(context, "to"),
+                                                        DimensionArgument.getDimension(context, "dimension"))))))));
+    }
+
+    private static LiteralArgumentBuilder<CommandSourceStack> config() {
+        return Commands.literal("config")
+                .then(longSetting("tickBudgetNanos", 100_000L, 40_000_000L,
+                        ChunkTransformerMod::getTickBudgetNanos, ChunkTransformerMod::setTickBudgetNanos))
+                .then(intSetting("targetMspt", 5, 50, ChunkTransformerMod::getTargetMspt, ChunkTransformerMod::setTargetMspt))
+                .then(boolSetting("chunkDataPersistence", ChunkTransformerMod::isChunkDataPersistence,
+                        ChunkTransformerMod::setChunkDataPersistence))
+                .then(boolSetting("deterministicSelection", ChunkTransformerMod::isDeterministicSelection,
+                        ChunkTransformerMod::setDeterministicSelection))
+                .then(boolSetting("generationTimeTransform", ChunkTransformerMod::isGenerationTimeTransform,
+                        ChunkTransformerMod::setGenerationTimeTransform))
+                .then(neighborUpdatesSetting())
+                .then(boolSetting("parallelPlanning", ChunkTransformerMod::isParallelPlanning,
+                        ChunkTransformerMod::setParallelPlanning))
+                .then(intSetting("areaChunksPerSecond", 1, 50,
+                        ChunkTransformerMod::getAreaChunksPerSecond, ChunkTransformerMod::setAreaChunksPerSecond))
+                .then(intSetting("metricsDumpSeconds", 0, 3600,
+                        ChunkTransformerMod::getMetricsDumpSeconds, ChunkTransformerMod::setMetricsDumpSeconds))
+                .then(boolSetting("incrementalRadius", ChunkTransformerMod::isIncrementalRadius,
+                        ChunkTransformerMod::setIncrementalRadius));
+    }
+
+    private static LiteralArgumentBuilder<CommandSourceStack> longSetting(String name, long min, long max,
+                                                                          LongSupplier getter, LongConsumer setter) {
+        return Commands.literal(name)
+                .executes(context -> showSetting(context.getSource(), name, getter.getAsLong()))
+                .then(Commands.argument("value", LongArgumentType.longArg(min, max))
+                        .executes(context -> {
+                            setter.accept(LongArgumentType.getLong(context, "value"));
+                            return settingChanged(context.getSource(), name, getter.getAsLong());
+                        }));
+    }
+
+    private static LiteralArgumentBuilder<CommandSourceStack> intSetting(String name, int min, int max,
+                                                                         IntSupplier getter, IntConsumer setter) {
+        return Commands.literal(name)
+                .executes(context -> showSetting(context.getSource(), name, getter.getAsInt()))
+                .then(Commands.argument("value", IntegerArgumentType.integer(min, max))
+                        .executes(context -> {
+                            setter.accept(IntegerArgumentType.getInteger(context, "value"));
+                            return settingChanged(context.getSource(), name, getter.getAsInt());
+                        }));
+    }
+
+    private static LiteralArgumentBuilder<CommandSourceStack> boolSetting(String name, BooleanSupplier getter,
+                                                                          BooleanConsumer setter) {
+        return Commands.literal(name)
+                .executes(context -> showSetting(context.getSource(), name, getter.getAsBoolean()))
+                .then(Commands.argument("value", BoolArgumentType.bool())
+                        .executes(context -> {
+                            setter.accept(BoolArgumentType.getBool(context, "value"));
+                            return settingChanged(context.getSource(), name, getter.getAsBoolean());
+                        }));
+    }
+
+    private static LiteralArgumentBuilder<CommandSourceStack> neighborUpdatesSetting() {
+        LiteralArgumentBuilder<CommandSourceStack> setting = Commands.literal("neighborUpdates")
+                .executes(context -> showSetting(context.getSource(), "neighborUpdates",
+                        ChunkTransformerMod.getNeighborUpdates().name().toLowerCase(Locale.ROOT)));
+        for (SectionTransformer.NeighborUpdates mode : SectionTransformer.NeighborUpdates.values()) {
+            String value = mode.name().toLowerCase(Locale.ROOT);
+            setting.then(Commands.literal(value).executes(context -> {
+                ChunkTransformerMod.setNeighborUpdates(mode);
+                return settingChanged(context.getSource(), "neighborUpdates", value);
+            }));
+        }
+        return setting;
+    }
+
+    private static int showSetting(CommandSourceStack source, String name, Object value) {
+        source.sendSuccess(() -> Component.literal(name + " is " + value), false);
+        return 1;
+    }
+
+    private static int settingChanged(CommandSourceStack source, String name, Object value) {
+        source.sendSuccess(() -> Component.literal("Set " + name + " to " + value), true);
+        return 1;
+    }
+
+    private static int stats(CommandSourceStack source) {
+        for (String line : ChunkTransformerMod.getMetrics().describe()) {
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        return 1;
+    }
+
+    private static int resetStats(CommandSourceStack source) {
+        ChunkTransformerMod.getMetrics().reset();
+        source.sendSuccess(() -> Component.literal("Transform metrics reset"), true);
+        return 1;
+    }
+
+    private static int start(CommandSourceStack source, ColumnPos from, ColumnPos to, ServerLevel level) {
+        int fromX = SectionPos.blockToSectionCoord(from.x());
+        int fromZ = SectionPos.blockToSectionCoord(from.z());
+        int toX = SectionPos.blockToSectionCoord(to.x());
+        int toZ = SectionPos.blockToSectionCoord(to.z());
+        long chunks = AreaTransformJob.chunkCount(fromX, fromZ, toX, toZ);
+        if (chunks > MAX_AREA_CHUNKS) {
+            source.sendFailure(Component.literal("Area is " + chunks + " chunks, at most " + MAX_AREA_CHUNKS + " can be queued at once"));
+            return 0;
+        }
+
+        AreaTransformJob job = new AreaTransformJob(source.getServer(), level.dimension(), fromX, fromZ, toX, toZ);
+        if (!ChunkTransformerMod.startAreaTransform(job)) {
+            source.sendFailure(Component.literal("An area transform is already running, see /chunktransformer transform status"));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("Queued " + chunks + " chunks for transformation at up to "
+                + ChunkTransformerMod.getAreaChunksPerSecond() + " chunks/s"), true);
+        return (int) chunks;
+    }
+
+    private static int status(CommandSourceStack source) {
+        AreaTransformJob job = ChunkTransformerMod.getAreaTransformJob();
+        if (job == null) {
+            source.sendSuccess(() -> Component.literal("No area transform is running"), false);
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal(job.describe()), false);
+        return job.percent();
+    }
+
+    private static int cancel(CommandSourceStack source) {
+        AreaTransformJob job = ChunkTransformerMod.cancelAreaTransform(source.getServer());
+        if (job == null) {
+            source.sendFailure(Component.literal("No area transform is running"));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("Cancelled area transform after " + job.getFinished() + " of "
+                + job.total + " chunks"), true);
+        return 1;
+    }
+}
@@ -5,26 +5,39 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.mojang.blaze3d.platform.InputConstants;
 import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.booleans.BooleanConsumer;
 import net.minecraft.client.KeyMapping;
 import net.minecraft.client.Minecraft;
-import net.minecraft.core.BlockPos;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Block;
-import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.state.properties.Property;
 import net.minecraft.world.level.chunk.LevelChunk;
-import net.minecraft.world.level.material.Fluids;
+import net.minecraft.world.level.levelgen.feature.Feature;
+import net.minecraft.world.level.levelgen.feature.configurations.NoneFeatureConfiguration;
 import net.minecraftforge.client.event.InputEvent;
 import net.minecraftforge.client.event.RegisterKeyMappingsEvent;
 import net.minecraftforge.eventbus.api.listener.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import net.minecraftforge.fml.loading.FMLPaths;
+import net.minecraftforge.registries.DeferredRegister;
 import net.minecraftforge.registries.ForgeRegistries;
+import net.minecraftforge.registries.IdMappingEvent;
+import net.minecraftforge.registries.RegistryObject;
 import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.level.ChunkDataEvent;
+import net.minecraftforge.event.level.ChunkEvent;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.server.ServerAboutToStartEvent;
+import net.minecraftforge.event.server.ServerStartedEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.server.ServerLifecycleHooks;
 import org.lwjgl.glfw.GLFW;
 
 import java.io.IOException;
@@ -49,20 +62,25 @@ public class ChunkTransformerMod {
             GLFW.GLFW_KEY_K,
             KeyMapping.Category.MISC
     );
-    private static final Random RANDOM = new Random();
-    private static final Map<String, Set<Long>> worldTransformedChunks = new ConcurrentHashMap<>();
-    private static String currentWorldId = null;
-    private ChunkPos lastChunkPos = null;
+    private static final Map<String, ChunkBitmapSet> worldTransformedChunks = new ConcurrentHashMap<>();
+    private static final TransformMetrics METRICS = new TransformMetrics();
+    private static final TransformJournal TRANSFORM_JOURNAL = new TransformJournal(FMLPaths.CONFIGDIR.get(), METRICS.flushNanos);
+    private static final ChunkDataStore CHUNK_DATA_STORE = new ChunkDataStore(
+            worldId -> worldTransformedChunks.computeIfAbsent(worldId, k -> new ChunkBitmapSet()));
+    // Worlds whose transformed-chunk data has been loaded this session
+    private static final Set<String> LOADED_WORLD_IDS = ConcurrentHashMap.newKeySet();
+    private static final Map<UUID, PlayerChunkState> PLAYER_STATES = new ConcurrentHashMap<>();
     private static boolean saveChunkTransformations = false;
     private static final Path CHUNK_SAVE_PATH = FMLPaths.CONFIGDIR.get().resolve("chunktransformer_chunks.json");
     private static final Path PERFORMANCE_CONFIG_PATH = FMLPaths.CONFIGDIR.get().resolve("chunktransformer_performance.json");
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
-    private static Path getWorldSpecificTransformedChunksPath(String worldId) {
-        return FMLPaths.CONFIGDIR.get().resolve("chunktransformer_transformed_chunks_" + worldId + ".json");
-    }
+    // Placed in every biome by data/chunktransformer/forge/biome_modifier/transform_chunks.json
+    private static final DeferredRegister<Feature<?>> FEATURES = DeferredRegister.create(ForgeRegistries.FEATURES, MODID);
+    public static final RegistryObject<ChunkTransformFeature> CHUNK_TRANSFORM_FEATURE =
+            FEATURES.register("chunk_transform", () -> new ChunkTransformFeature(NoneFeatureConfiguration.CODEC));
 
-    private static String getWorldIdentifier(Level level) {
+    static String getWorldIdentifier(Level level) {
         if (level == null) return "unknown_world";
         try {
             if (level.isClientSide()) {
@@ -83,24 +101,81 @@ public class ChunkTransformerMod {
 
     // Performance optimization fields
     private static final ScheduledExecutorService ASYNC_EXECUTOR = Executors.newScheduledThreadPool(2);
-    private static final Queue<ChunkTransformTask> TRANSFORM_QUEUE = new ConcurrentLinkedQueue<>();
-    private static final Set<Long> PROCESSING_CHUNKS = ConcurrentHashMap.newKeySet();
+    private static final TransformQueue<ChunkTransformTask> TRANSFORM_QUEUE = new TransformQueue<>(ChunkTransformerMod::onTaskDropped);
+    // Queued chunks further than transformRadius + this from every player are dropped
+    private static final int QUEUE_RANGE_MARGIN = 2;
+    // Chunks with a queued or running task; claimed before the task is queued, released when it finishes or is dropped
+    private static final Set<TransformQueue.ChunkKey> PROCESSING_CHUNKS = ConcurrentHashMap.newKeySet();
+    // Walk-in chunks whose task failed, e.g. not loaded yet; the incremental walk would never offer them again
+    private static final Set<TransformQueue.ChunkKey> RETRY_CHUNKS = ConcurrentHashMap.newKeySet();
+    // Block chosen for chunks transformed during generation, until the full chunk's follow-up commit finishes
+    private static final Map<TransformQueue.ChunkKey, BlockState> GENERATED_TARGETS = new ConcurrentHashMap<>();
+    // Work-stealing, so section scans forked by a plan in parallel mode spread over every idle core
+    private static final ForkJoinPool PLAN_EXECUTOR = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("ChunkTransformer-Planner-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, true);
+    private static final CommitScheduler COMMIT_SCHEDULER = new CommitScheduler();
+    private static final AdaptiveThrottle ADAPTIVE_THROTTLE = new AdaptiveThrottle();
 
     // Configurable performance settings
     private static boolean optimizationsEnabled = true;
     private static int maxBlocksPerTick = 500;
     private static int chunksPerSecond = 2;
     private static int transformRadius = 0;
+    private static boolean incrementalRadius = true;
+    private static long tickBudgetNanos = 2_000_000L;
+    private static boolean adaptiveThrottling = false;
+    private static int targetMspt = 40;
+    private static boolean chunkDataPersistence = false;
+    private static boolean deterministicSelection = false;
+    private static boolean generationTimeTransform = false;
+    private static SectionTransformer.NeighborUpdates neighborUpdates = SectionTransformer.NeighborUpdates.BOUNDARY;
+    private static boolean parallelPlanning = false;
+    private static int areaChunksPerSecond = 4;
+    private static int metricsDumpSeconds = 15;
+
+    // Server thread only
+    private static AreaTransformJob areaTransformJob = null;
+
+    // Last chunk and dimension seen for one player, so every player's crossings are tracked separately
+    private static class PlayerChunkState {
+        final ChunkPos chunkPos;
+        final ResourceKey<Level> dimension;
+
+        PlayerChunkState(ChunkPos chunkPos, ResourceKey<Level> dimension) {
+            this.chunkPos = chunkPos;
+            this.dimension = dimension;
+        }
+    }
 
+    // Only the chunk's coordinates are kept; the chunk itself is looked up again when the task runs
     private static class ChunkTransformTask {
-        final LevelChunk chunk;
-        final BlockState targetBlockState;
+        final ResourceKey<Level> dimension;
         final long chunkPos;
+        final BlockState targetBlockState;
+        final String worldId;
+        // Told whether the chunk was transformed once the task is done; area transforms only
+        final BooleanConsumer onFinished;
 
-        ChunkTransformTask(LevelChunk chunk, BlockState targetBlockState, long chunkPos) {
-            this.chunk = chunk;
-            this.targetBlockState = targetBlockState;
+        ChunkTransformTask(ResourceKey<Level> dimension, long chunkPos, BlockState targetBlockState, String worldId) {
+            this(dimension, chunkPos, targetBlockState, worldId, null);
+        }
+
+        ChunkTransformTask(ResourceKey<Level> dimension, long chunkPos, BlockState targetBlockState, String worldId,
+                           BooleanConsumer onFinished) {
+            this.dimension = dimension;
             this.chunkPos = chunkPos;
+            this.targetBlockState = targetBlockState;
+            this.worldId = worldId;
+            this.onFinished = onFinished;
+        }
+
+        TransformQueue.ChunkKey key() {
+            return new TransformQueue.ChunkKey(dimension, chunkPos);
         }
     }
 
@@ -129,20 +204,122 @@ public class ChunkTransformerMod {
         savePerformanceConfig();
     }
 
+    public static long getTickBudgetNanos() { return tickBudgetNanos; }
+    public static void setTickBudgetNanos(long budgetNanos) {
+        tickBudgetNanos = Math.max(100_000L, Math.min(40_000_000L, budgetNanos));
+        savePerformanceConfig();
+    }
+
+    public static boolean isAdaptiveThrottling() { return adaptiveThrottling; }
+    public static void setAdaptiveThrottling(boolean enabled) {
+        adaptiveThrottling = enabled;
+        savePerformanceConfig();
+    }
+
+    public static int getTargetMspt() { return targetMspt; }
+    public static void setTargetMspt(int mspt) {
+        targetMspt = Math.max(5, Math.min(50, mspt));
+        savePerformanceConfig();
+    }
+
+    public static boolean isChunkDataPersistence() { return chunkDataPersistence; }
+    public static void setChunkDataPersistence(boolean enabled) {
+        boolean migrate = enabled && !chunkDataPersistence && saveChunkTransformations;
+        chunkDataPersistence = enabled;
+        savePerformanceConfig();
+        if (migrate) {
+            // Worlds already loaded from the journal; chunk tags are read in either mode, so the other way needs nothing
+            TRANSFORM_JOURNAL.flush();
+            LOADED_WORLD_IDS.forEach(worldId -> migrateJournal(worldId,
+                    worldTransformedChunks.computeIfAbsent(worldId, k -> new ChunkBitmapSet())));
+        }
+    }
+
+    public static boolean isDeterministicSelection() { return deterministicSelection; }
+    public static void setDeterministicSelection(boolean enabled) {
+        deterministicSelection = enabled;
+        savePerformanceConfig();
+        exportOfflineRules();
+    }
+
+    public static boolean isGenerationTimeTransform() { return generationTimeTransform; }
+    public static void setGenerationTimeTransform(boolean enabled) {
+        generationTimeTransform = enabled;
+        savePerformanceConfig();
+    }
+
+    public static SectionTransformer.NeighborUpdates getNeighborUpdates() { return neighborUpdates; }
+    public static void setNeighborUpdates(SectionTransformer.NeighborUpdates mode) {
+        neighborUpdates = mode;
+        savePerformanceConfig();
+    }
+
+    public static boolean isIncrementalRadius() { return incrementalRadius; }
+    public static void setIncrementalRadius(boolean enabled) {
+        incrementalRadius = enabled;
+        savePerformanceConfig();
+    }
+
+    public static boolean isParallelPlanning() { return parallelPlanning; }
+    public static void setParallelPlanning(boolean enabled) {
+        parallelPlanning = enabled;
+        savePerformanceConfig();
+    }
+
+    public static int getAreaChunksPerSecond() { return areaChunksPerSecond; }
+    public static void setAreaChunksPerSecond(int chunks) {
+        areaChunksPerSecond = Math.max(1, Math.min(50, chunks));
+        savePerformanceConfig();
+    }
+
+    public static int getMetricsDumpSeconds() { return metricsDumpSeconds; }
+    public static void setMetricsDumpSeconds(int seconds) {
+        metricsDumpSeconds = Math.max(0, Math.min(3600, seconds));
+        savePerformanceConfig();
+        INSTANCE.startMetricsDump();
+    }
+
+    static TransformMetrics getMetrics() { return METRICS; }
+
+    static AreaTransformJob getAreaTransformJob() { return areaTransformJob; }
+
+    /**
+     * Starts a new area transform; returns false if one is already running.
+     */
+    static boolean startAreaTransform(AreaTransformJob job) {
+        if (areaTransformJob != null) return false;
+        areaTransformJob = job;
+        job.saveCheckpoint();
+        LOGGER.info("Area transform started: {}", job.describe());
+        return true;
+    }
+
+    static AreaTransformJob cancelAreaTransform(MinecraftServer server) {
+        AreaTransformJob job = areaTransformJob;
+        if (job == null) return null;
+        job.cancel(server);
+        areaTransformJob = null;
+        job.deleteCheckpoint();
+        LOGGER.info("Area transform cancelled: {}", job.describe());
+        return job;
+    }
+
     public static void toggleSaveChunkTransformations() {
         saveChunkTransformations = !saveChunkTransformations;
         saveChunkSaveConfig();
 
         if (saveChunkTransformations) {
-            if (currentWorldId != null) {
+            for (String worldId : LOADED_WORLD_IDS) {
                 try {
-                    loadTransformedChunksForWorld(currentWorldId);
+                    loadTransformedChunksForWorld(worldId);
                 } catch (Exception e) {
-                    LOGGER.error("Failed to load transformed chunks for current world", e);
+                    LOGGER.error("Failed to load transformed chunks for world: " + worldId, e);
                 }
             }
         } else {
             worldTransformedChunks.clear();
+            TRANSFORM_JOURNAL.discardPending();
+            CHUNK_DATA_STORE.clear();
             try {
                 Path configDir = FMLPaths.CONFIGDIR.get();
                 if (Files.exists(configDir)) {
@@ -175,6 +352,17 @@ public class ChunkTransformerMod {
                 config.put("maxBlocksPerTick", maxBlocksPerTick);
                 config.put("chunksPerSecond", chunksPerSecond);
                 config.put("transformRadius", transformRadius);
+                config.put("incrementalRadius", incrementalRadius);
+                config.put("tickBudgetNanos", tickBudgetNanos);
+                config.put("adaptiveThrottling", adaptiveThrottling);
+                config.put("targetMspt", targetMspt);
+                config.put("chunkDataPersistence", chunkDataPersistence);
+                config.put("deterministicSelection", deterministicSelection);
+                config.put("generationTimeTransform", generationTimeTransform);
+                config.put("neighborUpdates", neighborUpdates.name());
+                config.put("parallelPlanning", parallelPlanning);
+                config.put("areaChunksPerSecond", areaChunksPerSecond);
+                config.put("metricsDumpSeconds", metricsDumpSeconds);
                 GSON.toJson(config, writer);
             }
         } catch (IOException e) {
@@ -191,6 +379,22 @@ public class ChunkTransformerMod {
                     maxBlocksPerTick = ((Number) config.getOrDefault("maxBlocksPerTick", 500)).intValue();
                     chunksPerSecond = ((Number) config.getOrDefault("chunksPerSecond", 2)).intValue();
                     transformRadius = ((Number) config.getOrDefault("transformRadius", 0)).intValue();
+                    incrementalRadius = (Boolean) config.getOrDefault("incrementalRadius", true);
+                    tickBudgetNanos = ((Number) config.getOrDefault("tickBudgetNanos", 2_000_000L)).longValue();
+                    adaptiveThrottling = (Boolean) config.getOrDefault("adaptiveThrottling", false);
+                    targetMspt = ((Number) config.getOrDefault("targetMspt", 40)).intValue();
+                    chunkDataPersistence = (Boolean) config.getOrDefault("chunkDataPersistence", false);
+                    deterministicSelection = (Boolean) config.getOrDefault("deterministicSelection", false);
+                    generationTimeTransform = (Boolean) config.getOrDefault("generationTimeTransform", false);
+                    parallelPlanning = (Boolean) config.getOrDefault("parallelPlanning", false);
+                    areaChunksPerSecond = ((Number) config.getOrDefault("areaChunksPerSecond", 4)).intValue();
+                    metricsDumpSeconds = ((Number) config.getOrDefault("metricsDumpSeconds", 15)).intValue();
+                    try {
+                        neighborUpdates = SectionTransformer.NeighborUpdates.valueOf(
+                                (String) config.getOrDefault("neighborUpdates", "BOUNDARY"));
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.warn("Unknown neighborUpdates mode, using BOUNDARY");
+                    }
                 }
             } catch (IOException e) {
                 LOGGER.error("Failed to load performance configuration", e);
@@ -198,6 +402,54 @@ public class ChunkTransformerMod {
         }
     }
 
+    /**
+     * Writes the current replacement rules for {@link RegionTransformer}, which can't evaluate them
+     * without the game's registries. Synchronized since block config changes export from a background
+     * thread while a settings change can export from the server thread.
+     */
+    static synchronized void exportOfflineRules() {
+        try {
+            List<OfflineRules.BlockEntry> validBlocks = new ArrayList<>();
+            for (Block block : ValidBlocks.get()) {
+                validBlocks.add(new OfflineRules.BlockEntry(blockId(block), stateProperties(block.defaultBlockState())));
+            }
+            Set<String> skipBlocks = new TreeSet<>();
+            Set<String> skipStates = new TreeSet<>();
+            SkipTable skipTable = SkipTable.get();
+            for (Block block : ForgeRegistries.BLOCKS) {
+                List<BlockState> states = block.getStateDefinition().getPossibleStates();
+                List<BlockState> skipped = states.stream().filter(skipTable::shouldSkip).toList();
+                if (skipped.size() == states.size()) {
+                    skipBlocks.add(blockId(block));
+                } else {
+                    for (BlockState state : skipped) {
+                        skipStates.add(OfflineRules.stateKey(blockId(block), stateProperties(state)));
+                    }
+                }
+            }
+            new OfflineRules(validBlocks, skipBlocks, skipStates, deterministicSelection)
+                    .save(FMLPaths.CONFIGDIR.get().resolve(OfflineRules.FILE_NAME));
+        } catch (Exception e) {
+            LOGGER.error("Failed to export offline transform rules", e);
+        }
+    }
+
+    private static String blockId(Block block) {
+        return Objects.requireNonNull(ForgeRegistries.BLOCKS.getKey(block)).toString();
+    }
+
+    private static Map<String, String> stateProperties(BlockState state) {
+        Map<String, String> properties = new TreeMap<>();
+        for (Property<?> property : state.getProperties()) {
+            properties.put(property.getName(), valueName(state, property));
+        }
+        return properties;
+    }
+
+    private static <T extends Comparable<T>> String valueName(BlockState state, Property<T> property) {
+        return property.getName(state.getValue(property));
+    }
+
     private static void saveChunkSaveConfig() {
         try {
             Files.createDirectories(CHUNK_SAVE_PATH.getParent());
@@ -212,13 +464,7 @@ public class ChunkTransformerMod {
     public static void onWorldChanged(Level newWorld) {
         if (newWorld == null) return;
         try {
-            String newWorldId = getWorldIdentifier(newWorld);
-            if (!newWorldId.equals(currentWorldId)) {
-                currentWorldId = newWorldId;
-                if (saveChunkTransformations) {
-                    loadTransformedChunksForWorld(newWorldId);
-                }
-            }
+            ensureWorldLoaded(getWorldIdentifier(newWorld));
         } catch (Exception e) {
             LOGGER.error("Error handling world change", e);
         }
@@ -241,16 +487,39 @@ public class ChunkTransformerMod {
         INSTANCE = this;
         loadPerformanceConfig();
         loadChunkSaveConfig();
+        blockConfig.addChangeListener(() -> ValidBlocks.rebuildAsync().thenRun(ChunkTransformerMod::exportOfflineRules));
 
         // Game bus events — use their own static BUS fields
         PlayerEvent.PlayerRespawnEvent.BUS.addListener(this::onPlayerRespawn);
+        PlayerEvent.PlayerLoggedOutEvent.BUS.addListener(event -> {
+            PLAYER_STATES.remove(event.getEntity().getUUID());
+            TRANSFORM_QUEUE.removePlayer(event.getEntity().getUUID(), transformRadius + QUEUE_RANGE_MARGIN);
+        });
         TickEvent.PlayerTickEvent.Post.BUS.addListener(this::onPlayerTick);
+        TickEvent.ServerTickEvent.Pre.BUS.addListener(this::onServerTickStart);
+        TickEvent.ServerTickEvent.Post.BUS.addListener(this::onServerTick);
+        ServerStoppingEvent.BUS.addListener(this::onServerStopping);
+        ServerStartedEvent.BUS.addListener(this::onServerStarted);
+        RegisterCommandsEvent.BUS.addListener(event -> ChunkTransformerCommands.register(event.getDispatcher()));
+        ServerAboutToStartEvent.BUS.addListener(event -> {
+            blockConfig.compile();
+            // compile() notifies the change listener, which exports the offline rules once the list is rebuilt
+            ValidBlocks.init();
+        });
+        IdMappingEvent.BUS.addListener(event -> blockConfig.compile());
+        ChunkDataEvent.Load.BUS.addListener(CHUNK_DATA_STORE::onChunkLoad);
+        ChunkDataEvent.Save.BUS.addListener(CHUNK_DATA_STORE::onChunkSave);
+        ChunkEvent.Unload.BUS.addListener(CHUNK_DATA_STORE::onChunkUnload);
+        ChunkEvent.Unload.BUS.addListener(this::onChunkUnload);
+        ChunkEvent.Load.BUS.addListener(this::onGeneratedChunkLoad);
         InputEvent.Key.BUS.addListener(this::onKeyInput);
 
         // Mod bus event — needs the BusGroup from context
         RegisterKeyMappingsEvent.BUS.addListener(event -> event.register(configKey));
+        FEATURES.register(context.getModBusGroup());
 
         startAsyncChunkProcessor();
+        startMetricsDump();
     }
 
     public static BlockConfig getBlockConfig() {
@@ -264,7 +533,9 @@ public class ChunkTransformerMod {
     }
 
     public void onPlayerRespawn(PlayerEvent.PlayerRespawnEvent event) {
-        lastChunkPos = null;
+        if (event.getEntity() != null) {
+            PLAYER_STATES.remove(event.getEntity().getUUID());
+        }
         try {
             if (event.getEntity() != null && !event.getEntity().level().isClientSide()) {
                 onWorldChanged(event.getEntity().level());
@@ -281,21 +552,116 @@ public class ChunkTransformerMod {
 
         try {
             ChunkPos currentChunkPos = new ChunkPos(player.blockPosition());
+            ResourceKey<Level> dimension = player.level().dimension();
+            PlayerChunkState state = PLAYER_STATES.get(player.getUUID());
 
-            if (currentWorldId == null) {
-                onWorldChanged(player.level());
+            if (state == null || state.dimension != dimension || !currentChunkPos.equals(state.chunkPos)) {
+                boolean worldChanged = state == null || state.dimension != dimension;
+                if (worldChanged) {
+                    onWorldChanged(player.level());
+                }
+                // Re-score queued work before adding more, so new tasks see the current position
+                TRANSFORM_QUEUE.updatePlayer(player.getUUID(), dimension, currentChunkPos, transformRadius + QUEUE_RANGE_MARGIN);
+                handleChunkEnter(player, currentChunkPos, worldChanged ? null : state.chunkPos);
+                PLAYER_STATES.put(player.getUUID(), new PlayerChunkState(currentChunkPos, dimension));
             }
+        } catch (Exception e) {
+            LOGGER.error("Error in player tick event", e);
+        }
+    }
 
-            if (!currentChunkPos.equals(lastChunkPos)) {
-                handleChunkEnter(player, currentChunkPos);
-                lastChunkPos = currentChunkPos;
+    public void onServerTickStart(TickEvent.ServerTickEvent.Pre event) {
+        ADAPTIVE_THROTTLE.onTickStart();
+    }
+
+    public void onServerTick(TickEvent.ServerTickEvent.Post event) {
+        try {
+            if (adaptiveThrottling) {
+                ADAPTIVE_THROTTLE.onServerWorkDone();
+                ADAPTIVE_THROTTLE.update(maxBlocksPerTick, chunksPerSecond, tickBudgetNanos, targetMspt);
+                long start = System.nanoTime();
+                int processed = COMMIT_SCHEDULER.tick(ADAPTIVE_THROTTLE.getBlocksPerTick(), ADAPTIVE_THROTTLE.getBudgetNanos());
+                long elapsed = System.nanoTime() - start;
+                ADAPTIVE_THROTTLE.recordCommit(processed, elapsed);
+                METRICS.recordCommitTick(processed, elapsed);
+            } else {
+                long start = System.nanoTime();
+                int processed = COMMIT_SCHEDULER.tick(maxBlocksPerTick, tickBudgetNanos);
+                METRICS.recordCommitTick(processed, System.nanoTime() - start);
+            }
+            // Gauges are gathered only when due, the queue has to be locked to read them
+            if (METRICS.shouldSample()) {
+                int queued = TRANSFORM_QUEUE.size();
+                METRICS.sample(queued, TRANSFORM_QUEUE.laneCount(), Math.max(0, PROCESSING_CHUNKS.size() - queued),
+                        COMMIT_SCHEDULER.getPendingCount());
             }
+            CHUNK_DATA_STORE.tick();
+            tickAreaTransform();
         } catch (Exception e) {
-            LOGGER.error("Error in player tick event", e);
+            LOGGER.error("Error in server tick event", e);
+        }
+    }
+
+    private static void tickAreaTransform() {
+        if (areaTransformJob == null) return;
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null || !areaTransformJob.tick(server)) return;
+        LOGGER.info("Area transform finished: {}", areaTransformJob.describe());
+        areaTransformJob.deleteCheckpoint();
+        areaTransformJob = null;
+    }
+
+    public void onServerStarted(ServerStartedEvent event) {
+        // Pick up an area transform that was still running when the server last stopped
+        areaTransformJob = AreaTransformJob.resume(event.getServer());
+        if (areaTransformJob != null) {
+            LOGGER.info("Area transform resumed: {}", areaTransformJob.describe());
+        }
+    }
+
+    public void onServerStopping(ServerStoppingEvent event) {
+        if (areaTransformJob != null) {
+            // Checkpointed before its force-loaded chunks are released, so they are saved in their current state
+            areaTransformJob.suspend(event.getServer());
+            areaTransformJob = null;
+        }
+        // Make sure every journaled chunk is on disk before the world closes
+        TRANSFORM_JOURNAL.flush();
+        PLAYER_STATES.clear();
+        TRANSFORM_QUEUE.clear();
+        // Pending commits reference the server's levels, don't carry them into the next world
+        COMMIT_SCHEDULER.clear();
+        PROCESSING_CHUNKS.clear();
+        RETRY_CHUNKS.clear();
+        // Targets of proto chunks that never became full are lost; those chunks get a fresh pick when visited
+        GENERATED_TARGETS.clear();
+    }
+
+    public void onChunkUnload(ChunkEvent.Unload event) {
+        if (!(event.getLevel() instanceof ServerLevel level)) return;
+        // Queued work for this chunk is dropped and its claim released, so it is redone on the next visit
+        TRANSFORM_QUEUE.cancel(level.dimension(), event.getChunk().getPos().toLong());
+        // A commit still running on it is settled while the chunk exists, before it is saved
+        if (event.getChunk() instanceof LevelChunk chunk) {
+            COMMIT_SCHEDULER.onChunkUnload(level, chunk);
         }
     }
 
     private ScheduledFuture<?> processorTask = null;
+    private ScheduledFuture<?> metricsTask = null;
+
+    private void startMetricsDump() {
+        if (metricsTask != null && !metricsTask.isCancelled()) {
+            metricsTask.cancel(false);
+        }
+        if (metricsDumpSeconds == 0) return;
+        metricsTask = ASYNC_EXECUTOR.scheduleWithFixedDelay(() -> {
+            // Only while a server runs, so a client sitting in the menus doesn't keep rewriting stale numbers
+            if (ServerLifecycleHooks.getCurrentServer() != null) {
+                METRICS.dump(FMLPaths.GAMEDIR.get());
+            }
+        }, metricsDumpSeconds, metricsDumpSeconds, TimeUnit.SECONDS);
+    }
 
     private void startAsyncChunkProcessor() {
         if (processorTask != null && !processorTask.isCancelled()) {
@@ -303,24 +669,18 @@ public class ChunkTransformerMod {
         }
         long intervalMs = 1000L / chunksPerSecond; // use long to avoid integer division issues
         processorTask = ASYNC_EXECUTOR.scheduleAtFixedRate(() -> {
+            // In adaptive mode chunksPerSecond is only the cap; the throttle decides the actual rate
+            if (adaptiveThrottling && !ADAPTIVE_THROTTLE.tryAdmit()) return;
             ChunkTransformTask task = TRANSFORM_QUEUE.poll();
-            if (task != null && !PROCESSING_CHUNKS.contains(task.chunkPos)) {
-                PROCESSING_CHUNKS.add(task.chunkPos);
+            // Every queued task already holds its claim, so whatever comes out of the queue runs
+            if (task != null) {
                 processChunkAsync(task);
             }
         }, 0, intervalMs, TimeUnit.MILLISECONDS);
     }
 
 
-    private void handleChunkEnter(Player player, ChunkPos chunkPos) {
-        if (transformRadius == 0) {
-            transformSingleChunk(player, chunkPos);
-        } else {
-            transformChunksInRadius(player, transformRadius);
-        }
-    }
-
-    private void transformSingleChunk(Player player, ChunkPos chunkPos) {
+    private void handleChunkEnter(Player player, ChunkPos chunkPos, ChunkPos previousChunkPos) {
         if (player == null) return;
 
         Level level = player.level();
@@ -333,225 +693,303 @@ public class ChunkTransformerMod {
             return;
         }
 
-        if (!worldId.equals(currentWorldId)) {
-            currentWorldId = worldId;
-            if (saveChunkTransformations) {
-                try {
-                    loadTransformedChunksForWorld(worldId);
-                } catch (Exception e) {
-                    LOGGER.error("Failed to load transformed chunks for world: " + worldId, e);
-                }
+        ensureWorldLoaded(worldId);
+
+        ChunkBitmapSet currentWorldChunks = worldTransformedChunks.computeIfAbsent(worldId, k -> new ChunkBitmapSet());
+
+        // Without saving, chunks are re-randomized on every visit; generation-time marks still have to stick.
+        // Only finished commits are in the set, queued and in-flight chunks stay claimed in PROCESSING_CHUNKS
+        if (!saveChunkTransformations && !generationTimeTransform) {
+            currentWorldChunks.clear();
+        }
+
+        if (transformRadius == 0) {
+            transformSingleChunk(player, worldId, currentWorldChunks, chunkPos.toLong());
+        } else if (incrementalRadius) {
+            transformChunksInRange(player, worldId, currentWorldChunks, chunkPos, previousChunkPos, transformRadius);
+            if (previousChunkPos != null) {
+                retryFailedChunks(player, worldId, currentWorldChunks, chunkPos, transformRadius);
             }
+        } else {
+            // Full square on every crossing, which retries failed chunks by itself
+            transformChunksInRange(player, worldId, currentWorldChunks, chunkPos, null, transformRadius);
         }
+    }
 
-        long chunkPosLong = chunkPos.toLong();
-        Set<Long> currentWorldChunks = worldTransformedChunks.computeIfAbsent(worldId, k -> ConcurrentHashMap.newKeySet());
+    /**
+     * Offers the failed chunks within the square around {@code center} again, since the incremental walk
+     * only offers chunks as they come into range.
+     */
+    private void retryFailedChunks(Player player, String worldId, ChunkBitmapSet chunks, ChunkPos center, int radius) {
+        if (RETRY_CHUNKS.isEmpty()) return;
+        ResourceKey<Level> dimension = player.level().dimension();
+        for (TransformQueue.ChunkKey key : RETRY_CHUNKS) {
+            if (key.dimension() != dimension
+                    || Math.abs(ChunkPos.getX(key.chunkPos()) - center.x) > radius
+                    || Math.abs(ChunkPos.getZ(key.chunkPos()) - center.z) > radius) {
+                continue;
+            }
+            RETRY_CHUNKS.remove(key);
+            transformSingleChunk(player, worldId, chunks, key.chunkPos());
+        }
+    }
 
-        if (!saveChunkTransformations) {
-            currentWorldChunks.clear();
+    /**
+     * Transforms the square of chunks around {@code center} that was not already in range around
+     * {@code previous}, so a one-chunk step only touches the newly exposed edge strip. Passing
+     * {@code null} for {@code previous} walks the whole square.
+     */
+    private void transformChunksInRange(Player player, String worldId, ChunkBitmapSet chunks,
+                                         ChunkPos center, ChunkPos previous, int radius) {
+        for (int x = center.x - radius; x <= center.x + radius; x++) {
+            if (previous == null || Math.abs(x - previous.x) > radius) {
+                for (int z = center.z - radius; z <= center.z + radius; z++) {
+                    transformSingleChunk(player, worldId, chunks, ChunkPos.asLong(x, z));
+                }
+                continue;
+            }
+            // The column was partly in range: only the rows outside the old square are new
+            for (int z = center.z - radius; z <= Math.min(center.z + radius, previous.z - radius - 1); z++) {
+                transformSingleChunk(player, worldId, chunks, ChunkPos.asLong(x, z));
+            }
+            for (int z = Math.max(center.z - radius, previous.z + radius + 1); z <= center.z + radius; z++) {
+                transformSingleChunk(player, worldId, chunks, ChunkPos.asLong(x, z));
+            }
         }
+    }
 
-        if (currentWorldChunks.contains(chunkPosLong) || PROCESSING_CHUNKS.contains(chunkPosLong)) {
+    private void transformSingleChunk(Player player, String worldId, ChunkBitmapSet currentWorldChunks, long chunkPosLong) {
+        // Cheapest check first, most chunks in range are already done
+        if (currentWorldChunks.contains(chunkPosLong)) {
+            return;
+        }
+        Level level = player.level();
+        TransformQueue.ChunkKey key = new TransformQueue.ChunkKey(level.dimension(), chunkPosLong);
+        if (PROCESSING_CHUNKS.contains(key)) {
             return;
         }
-
-        currentWorldChunks.add(chunkPosLong);
 
         try {
-            LevelChunk chunk = level.getChunk(chunkPos.x, chunkPos.z);
-            List<Block> validBlocks = getValidBlocks(level);
-            if (validBlocks.isEmpty()) return;
-
-            Block randomBlock = validBlocks.get(RANDOM.nextInt(validBlocks.size()));
-            BlockState newBlockState = randomBlock.defaultBlockState();
+            BlockState newBlockState = targetFor(level, chunkPosLong);
+            if (newBlockState == null) return;
 
             if (optimizationsEnabled) {
-                TRANSFORM_QUEUE.offer(new ChunkTransformTask(chunk, newBlockState, chunkPosLong));
+                // Marked and persisted once the commit finishes, since queued work can still be dropped
+                PROCESSING_CHUNKS.add(key);
+                TRANSFORM_QUEUE.offer(player.getUUID(), level.dimension(), chunkPosLong,
+                        new ChunkTransformTask(level.dimension(), chunkPosLong, newBlockState, worldId));
             } else {
-                transformChunkImmediate(chunk, newBlockState);
-            }
-
-            if (saveChunkTransformations) {
-                try {
-                    saveTransformedChunksForWorld(worldId);
-                } catch (Exception e) {
-                    LOGGER.error("Failed to save transformed chunks for world: " + worldId, e);
-                }
+                transformChunkImmediate(level.getChunk(ChunkPos.getX(chunkPosLong), ChunkPos.getZ(chunkPosLong)), newBlockState);
+                currentWorldChunks.add(chunkPosLong);
+                persistTransformedChunk(worldId, chunkPosLong, newBlockState);
             }
         } catch (Exception e) {
             LOGGER.error("Error during chunk transformation", e);
-            currentWorldChunks.remove(chunkPosLong);
+            PROCESSING_CHUNKS.remove(key);
         }
     }
 
-    private static void saveTransformedChunksForWorld(String worldId) {
-        if (!saveChunkTransformations || worldId == null) return;
-
-        Set<Long> chunksToSave = worldTransformedChunks.get(worldId);
-        if (chunksToSave == null || chunksToSave.isEmpty()) return;
+    static BlockState chooseTargetBlock(Level level, long chunkPosLong) {
+        List<Block> validBlocks = ValidBlocks.get();
+        if (validBlocks.isEmpty()) return null;
+
+        Block block = deterministicSelection && level instanceof ServerLevel serverLevel
+                ? BlockSelector.select(serverLevel.getSeed(), level.dimension(), chunkPosLong, validBlocks)
+                : validBlocks.get(ThreadLocalRandom.current().nextInt(validBlocks.size()));
+        return block.defaultBlockState();
+    }
+
+    /**
+     * Prefers the block a chunk was given during generation, so finishing it later never picks another.
+     */
+    private static BlockState targetFor(Level level, long chunkPosLong) {
+        BlockState generated = GENERATED_TARGETS.get(new TransformQueue.ChunkKey(level.dimension(), chunkPosLong));
+        return generated != null ? generated : chooseTargetBlock(level, chunkPosLong);
+    }
+
+    /**
+     * Remembers the block a chunk was transformed into while it was still being generated. The chunk is
+     * not marked yet: features of neighbouring chunks can still write into it, so it is only marked once
+     * it became a full chunk and a follow-up commit caught those blocks, see {@link #onGeneratedChunkLoad}.
+     * Called from worldgen threads.
+     */
+    static void rememberGeneratedTarget(Level level, long chunkPosLong, BlockState targetBlockState) {
+        GENERATED_TARGETS.put(new TransformQueue.ChunkKey(level.dimension(), chunkPosLong), targetBlockState);
+    }
+
+    /**
+     * Sends a chunk transformed during generation through the regular pipeline once it was promoted to a
+     * full chunk. Only the blocks neighbouring features placed afterwards are left to replace, every other
+     * section is ruled out from its palette.
+     */
+    private void onGeneratedChunkLoad(ChunkEvent.Load event) {
+        if (!event.isNewChunk() || !(event.getLevel() instanceof ServerLevel level)
+                || !(event.getChunk() instanceof LevelChunk chunk)) return;
+        long chunkPosLong = chunk.getPos().toLong();
+        TransformQueue.ChunkKey key = new TransformQueue.ChunkKey(level.dimension(), chunkPosLong);
+        BlockState targetBlockState = GENERATED_TARGETS.get(key);
+        if (targetBlockState == null || !PROCESSING_CHUNKS.add(key)) return;
+        processChunkAsync(new ChunkTransformTask(level.dimension(), chunkPosLong, targetBlockState, getWorldIdentifier(level)));
+    }
+
+    private static void persistTransformedChunk(String worldId, long chunkPosLong, BlockState targetBlockState) {
+        if (!saveChunkTransformations) return;
+        if (chunkDataPersistence) {
+            // The flag is already in the world's chunk set and gets written with the chunk itself
+            CHUNK_DATA_STORE.recordTarget(worldId, chunkPosLong, targetBlockState);
+        } else {
+            TRANSFORM_JOURNAL.append(worldId, chunkPosLong);
+        }
+    }
 
+    private static void ensureWorldLoaded(String worldId) {
+        if (!LOADED_WORLD_IDS.add(worldId) || !saveChunkTransformations) return;
         try {
-            Path worldSpecificPath = getWorldSpecificTransformedChunksPath(worldId);
-            Files.createDirectories(worldSpecificPath.getParent());
-            try (Writer writer = Files.newBufferedWriter(worldSpecificPath)) {
-                GSON.toJson(chunksToSave, writer);
-            }
-        } catch (IOException e) {
-            LOGGER.error("Failed to save transformed chunks for world: " + worldId, e);
+            loadTransformedChunksForWorld(worldId);
+        } catch (Exception e) {
+            LOGGER.error("Failed to load transformed chunks for world: " + worldId, e);
         }
     }
 
     private static void loadTransformedChunksForWorld(String worldId) {
         if (!saveChunkTransformations || worldId == null) return;
-
-        Path worldSpecificPath = getWorldSpecificTransformedChunksPath(worldId);
-        if (Files.exists(worldSpecificPath)) {
-            try (Reader reader = Files.newBufferedReader(worldSpecificPath)) {
-                Set<Long> loadedChunks = GSON.fromJson(reader, new TypeToken<Set<Long>>(){}.getType());
-                if (loadedChunks != null) {
-                    worldTransformedChunks.put(worldId, ConcurrentHashMap.newKeySet());
-                    worldTransformedChunks.get(worldId).addAll(loadedChunks);
-                }
-            } catch (IOException e) {
-                LOGGER.error("Failed to load transformed chunks for world: " + worldId, e);
-            }
+        if (chunkDataPersistence) {
+            // Flags arrive through ChunkDataEvent.Load as chunks load, only journaled chunks are read up front
+            migrateJournal(worldId, worldTransformedChunks.computeIfAbsent(worldId, k -> new ChunkBitmapSet()));
+            return;
         }
+        // Merge rather than replace, generated chunks may already have been marked for this world
+        ChunkBitmapSet chunks = worldTransformedChunks.computeIfAbsent(worldId, k -> new ChunkBitmapSet());
+        TRANSFORM_JOURNAL.load(worldId).forEach(chunks::add);
     }
 
-    private static List<Block> cachedValidBlocks = null;
-    private static long lastValidBlocksUpdate = 0;
-    private static final long VALID_BLOCKS_CACHE_TIME = 30000;
-
-    private List<Block> getValidBlocks(Level level) {
-        long currentTime = System.currentTimeMillis();
-        if (cachedValidBlocks == null || (currentTime - lastValidBlocksUpdate) > VALID_BLOCKS_CACHE_TIME) {
-            List<Block> validBlocks = new ArrayList<>();
-            ForgeRegistries.BLOCKS.forEach(block -> {
-                if (block != Blocks.AIR &&
-                        block != Blocks.SPAWNER &&
-                        block != Blocks.END_PORTAL_FRAME &&
-                        block.defaultBlockState().isCollisionShapeFullBlock(level, BlockPos.ZERO) &&
-                        blockConfig.isBlockEnabled(block)) {
-                    validBlocks.add(block);
-                }
-            });
-            cachedValidBlocks = validBlocks;
-            lastValidBlocksUpdate = currentTime;
-        }
-        return cachedValidBlocks;
+    /**
+     * Carries chunks recorded while the journal was in use over to chunk data mode: they count as
+     * transformed and get their flag written the next time they save. The journal is left as it is.
+     */
+    private static void migrateJournal(String worldId, ChunkBitmapSet chunks) {
+        TRANSFORM_JOURNAL.load(worldId).forEach(chunkPos -> {
+            chunks.add(chunkPos);
+            CHUNK_DATA_STORE.recordMigrated(worldId, chunkPos);
+        });
     }
 
-    private void processChunkAsync(ChunkTransformTask task) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                transformChunkOptimized(task.chunk, task.targetBlockState);
-            } finally {
-                PROCESSING_CHUNKS.remove(task.chunkPos);
-            }
-        }, ASYNC_EXECUTOR);
+    private static void onTaskDropped(ChunkTransformTask task) {
+        // Nobody is near it any more; release it so it is picked up again when somebody comes back
+        PROCESSING_CHUNKS.remove(task.key());
     }
 
-    private void transformChunkImmediate(LevelChunk chunk, BlockState targetBlockState) {
-        Level level = chunk.getLevel();
-        int minY = level.dimensionType().minY();
-        int maxY = minY + level.dimensionType().height();
-        for (int x = 0; x < 16; x++) {
-            for (int z = 0; z < 16; z++) {
-                for (int y = minY; y < maxY; y++) {
-                    BlockPos pos = new BlockPos(
-                            chunk.getPos().getMinBlockX() + x,
-                            y,
-                            chunk.getPos().getMinBlockZ() + z
-                    );
-                    BlockState currentState = level.getBlockState(pos);
-                    if (shouldSkipBlock(currentState.getBlock(), currentState)) continue;
-                    level.setBlock(pos, targetBlockState, Block.UPDATE_ALL);
-                }
-            }
+    private static void finishTask(ChunkTransformTask task, boolean transformed) {
+        if (transformed) {
+            // Marked before the claim is released, so no visit in between can queue it again
+            worldTransformedChunks.computeIfAbsent(task.worldId, k -> new ChunkBitmapSet()).add(task.chunkPos);
+            persistTransformedChunk(task.worldId, task.chunkPos, task.targetBlockState);
+            GENERATED_TARGETS.remove(task.key());
+        }
+        if (!transformed && task.onFinished == null) {
+            // Added before the claim is released, so the next crossing can't miss it
+            RETRY_CHUNKS.add(task.key());
+        }
+        PROCESSING_CHUNKS.remove(task.key());
+        METRICS.recordChunk(transformed);
+        if (task.onFinished != null) {
+            task.onFinished.accept(transformed);
         }
     }
 
-    private void transformChunkOptimized(LevelChunk chunk, BlockState targetBlockState) {
-        Level level = chunk.getLevel();
-        int minY = level.dimensionType().minY();
-        int maxY = minY + level.dimensionType().height();
-        List<BlockPos> positionsToChange = new ArrayList<>();
-
-        for (int x = 0; x < 16; x++) {
-            for (int z = 0; z < 16; z++) {
-                for (int y = minY; y < maxY; y++) {
-                    BlockPos pos = new BlockPos(
-                            chunk.getPos().getMinBlockX() + x,
-                            y,
-                            chunk.getPos().getMinBlockZ() + z
-                    );
-                    BlockState currentState = level.getBlockState(pos);
-                    if (shouldSkipBlock(currentState.getBlock(), currentState)) continue;
-                    positionsToChange.add(pos);
-                }
-            }
+    /**
+     * Whether the chunk's commit finished in this dimension; queued and in-flight chunks don't count.
+     */
+    static boolean isChunkTransformed(ServerLevel level, long chunkPosLong) {
+        String worldId = getWorldIdentifier(level);
+        ensureWorldLoaded(worldId);
+        ChunkBitmapSet chunks = worldTransformedChunks.get(worldId);
+        return chunks != null && chunks.contains(chunkPosLong);
+    }
+
+    /**
+     * Sends a loaded chunk of an area transform straight into the snapshot, plan and commit stages,
+     * bypassing the player-ordered queue. A chunk still queued for a player is taken over; one that is
+     * already being planned or committed is reported busy. Only for {@link AreaTransformJob.Submit#STARTED}
+     * is {@code onFinished} called, once it is done, from whichever thread finishes it.
+     */
+    static AreaTransformJob.Submit transformAreaChunk(ServerLevel level, long chunkPosLong, BooleanConsumer onFinished) {
+        if (isChunkTransformed(level, chunkPosLong)) return AreaTransformJob.Submit.DONE;
+        TransformQueue.ChunkKey key = new TransformQueue.ChunkKey(level.dimension(), chunkPosLong);
+        if (PROCESSING_CHUNKS.contains(key)) {
+            TRANSFORM_QUEUE.cancel(level.dimension(), chunkPosLong);
+            if (PROCESSING_CHUNKS.contains(key)) return AreaTransformJob.Submit.BUSY;
         }
+        BlockState targetBlockState = targetFor(level, chunkPosLong);
+        if (targetBlockState == null) return AreaTransformJob.Submit.NO_TARGET;
+        if (!PROCESSING_CHUNKS.add(key)) return AreaTransformJob.Submit.BUSY;
 
-        processBatchedBlockUpdates(level, positionsToChange, targetBlockState);
+        String worldId = getWorldIdentifier(level);
+        INSTANCE.processChunkAsync(new ChunkTransformTask(level.dimension(), chunkPosLong, targetBlockState, worldId, onFinished));
+        return AreaTransformJob.Submit.STARTED;
     }
 
-    private boolean shouldSkipBlock(Block currentBlock, BlockState currentState) {
-        return currentBlock == Blocks.AIR ||
-                currentBlock == Blocks.SPAWNER ||
-                currentBlock == Blocks.END_PORTAL_FRAME ||
-                currentBlock == Blocks.WATER ||
-                currentBlock == Blocks.LAVA ||
-                currentState.getFluidState().is(Fluids.WATER) ||
-                currentState.getFluidState().is(Fluids.LAVA) ||
-                currentState.getFluidState().is(Fluids.FLOWING_WATER) ||
-                currentState.getFluidState().is(Fluids.FLOWING_LAVA);
-    }
-
-    private void processBatchedBlockUpdates(Level level, List<BlockPos> positions, BlockState targetBlockState) {
-        if (positions.isEmpty()) return;
+    private void processChunkAsync(ChunkTransformTask task) {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null) {
+            finishTask(task, false);
+            return;
+        }
 
-        int batchSize = Math.min(maxBlocksPerTick, positions.size());
-        int totalBatches = (int) Math.ceil((double) positions.size() / batchSize);
+        // Stage one: copy the section states on the server thread
+        server.execute(() -> {
+            ServerLevel level = server.getLevel(task.dimension);
+            // Never load a chunk just for this; if it went away, it is picked up again on the next visit
+            LevelChunk chunk = level != null
+                    ? level.getChunkSource().getChunkNow(ChunkPos.getX(task.chunkPos), ChunkPos.getZ(task.chunkPos))
+                    : null;
+            if (chunk == null) {
+                finishTask(task, false);
+                return;
+            }
 
-        for (int batch = 0; batch < totalBatches; batch++) {
-            final int batchIndex = batch;
-            final int startIndex = batch * batchSize;
-            final int endIndex = Math.min(startIndex + batchSize, positions.size());
-            final List<BlockPos> batchPositions = new ArrayList<>(positions.subList(startIndex, endIndex));
+            ChunkSnapshot snapshot;
+            try {
+                snapshot = ChunkSnapshot.capture(chunk);
+            } catch (Exception e) {
+                LOGGER.error("Failed to snapshot chunk for transformation", e);
+                finishTask(task, false);
+                return;
+            }
 
-            ASYNC_EXECUTOR.schedule(() -> Objects.requireNonNull(level.getServer()).execute(() -> {
-                for (BlockPos pos : batchPositions) {
-                    level.setBlock(pos, targetBlockState, Block.UPDATE_CLIENTS);
-                }
-                if (batchIndex == totalBatches - 1) {
-                    for (BlockPos pos : batchPositions) {
-                        // CHANGED: level.blockUpdated(pos, block) -> level.updateNeighborsAt(pos, block)
-                        level.updateNeighborsAt(pos, targetBlockState.getBlock());
-                    }
-                }
-            }), batch * 50L, TimeUnit.MILLISECONDS);
-        }
+            // Stage two: plan from the copy on worker threads, never touching the live chunk
+            CompletableFuture.supplyAsync(() -> {
+                        long start = System.nanoTime();
+                        TransformPlan plan = TransformPlan.compute(snapshot, task.targetBlockState, parallelPlanning);
+                        METRICS.scanNanos.record(System.nanoTime() - start);
+                        return plan;
+                    }, PLAN_EXECUTOR)
+                    .whenComplete((plan, error) -> {
+                        if (error != null) {
+                            LOGGER.error("Failed to plan chunk transformation", error);
+                            finishTask(task, false);
+                        } else if (plan.isEmpty()) {
+                            finishTask(task, true);
+                        } else {
+                            // Stage three: commit back on the server thread, drained by onServerTick
+                            COMMIT_SCHEDULER.submit(level, plan, transformed -> finishTask(task, transformed));
+                        }
+                    });
+        });
     }
 
-    public void transformChunksInRadius(Player player, int radius) {
-        ChunkPos playerChunk = new ChunkPos(player.blockPosition());
-
-        for (int x = -radius; x <= radius; x++) {
-            for (int z = -radius; z <= radius; z++) {
-                ChunkPos chunkPos = new ChunkPos(playerChunk.x + x, playerChunk.z + z);
-                int delay = optimizationsEnabled ? (Math.abs(x) + Math.abs(z)) * 100 : 0;
+    private void transformChunkImmediate(LevelChunk chunk, BlockState targetBlockState) {
+        SectionTransformer.transformChunk(chunk, targetBlockState);
+    }
 
-                if (delay > 0) {
-                    ASYNC_EXECUTOR.schedule(() -> transformSingleChunk(player, chunkPos),
-                            delay, TimeUnit.MILLISECONDS);
-                } else {
-                    transformSingleChunk(player, chunkPos);
-                }
-            }
-        }
+    static boolean shouldSkipBlock(BlockState currentState) {
+        return SkipTable.get().shouldSkip(currentState);
     }
 
     public static void shutdown() {
+        TRANSFORM_JOURNAL.close();
+        PLAN_EXECUTOR.shutdownNow();
+        COMMIT_SCHEDULER.clear();
         if (ASYNC_EXECUTOR != null && !ASYNC_EXECUTOR.isShutdown()) {
             ASYNC_EXECUTOR.shutdown();
             try {
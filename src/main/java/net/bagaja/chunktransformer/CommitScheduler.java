@@ -0,0 +1,132 @@
+package net.bagaja.chunktransformer;
+
+import it.unimi.dsi.fastutil.booleans.BooleanConsumer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Drains planned block writes on the server thread from the server tick, followed by the light checks
+ * and neighbour updates each chunk owes once written. Each tick stops once either the block cap, which
+ * counts those cells too, or the nanosecond budget is used up; whatever is left carries over to the next tick.
+ * <p>
+ * Pending commits only hold the level and the chunk position. The chunk is looked up again every tick,
+ * so an unloaded chunk is never kept in memory by work still waiting here. A chunk that unloads partway
+ * through is settled from its unload event, while it still exists, and reported as not transformed so
+ * the remaining cells are redone on the next visit.
+ */
+public class CommitScheduler {
+    private static class PendingCommit {
+        final ServerLevel level;
+        final TransformPlan plan;
+        final BooleanConsumer onComplete;
+
+        PendingCommit(ServerLevel level, TransformPlan plan, BooleanConsumer onComplete) {
+            this.level = level;
+            this.plan = plan;
+            this.onComplete = onComplete;
+        }
+    }
+
+    // Filled by planner threads, drained by the server thread
+    private final Queue<PendingCommit> submitted = new ConcurrentLinkedQueue<>();
+    // Server thread only; the head is the plan currently being committed
+    private final ArrayDeque<PendingCommit> active = new ArrayDeque<>();
+
+    /**
+     * Queues a plan for committing. {@code onComplete} runs on the server thread once the plan is done or
+     * abandoned, and is told whether any of it reached the chunk.
+     */
+    public void submit(ServerLevel level, TransformPlan plan, BooleanConsumer onComplete) {
+        submitted.offer(new PendingCommit(level, plan, onComplete));
+    }
+
+    public int getPendingCount() {
+        return submitted.size() + active.size();
+    }
+
+    /**
+     * Commits pending plans in submission order and returns the number of cells processed this tick.
+     */
+    public int tick(int maxBlocks, long budgetNanos) {
+        drainSubmitted();
+
+        long deadline = System.nanoTime() + budgetNanos;
+        int processed = 0;
+        while (!active.isEmpty() && processed < maxBlocks && System.nanoTime() < deadline) {
+            PendingCommit current = active.peekFirst();
+            long chunkPos = current.plan.chunkPos;
+            LevelChunk chunk = current.level.getChunkSource().getChunkNow(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos));
+            if (chunk == null) {
+                // Gone without an unload event reaching us; nothing can be settled any more
+                active.pollFirst();
+                current.onComplete.accept(false);
+                continue;
+            }
+            try {
+                if (!current.plan.isComplete()) {
+                    processed += current.plan.commit(chunk, maxBlocks - processed, deadline);
+                }
+                if (current.plan.isComplete()) {
+                    // Light checks, heightmaps and neighbour updates share the remaining budget
+                    processed += current.plan.finish(chunk, maxBlocks - processed, deadline);
+                }
+            } catch (Exception e) {
+                ChunkTransformerMod.LOGGER.error("Failed to commit chunk transformation", e);
+                active.pollFirst();
+                try {
+                    if (current.plan.isStarted() && !current.plan.isFinished()) {
+                        // Still bring heightmaps and clients in line with whatever did get written
+                        current.plan.finish(chunk, Integer.MAX_VALUE, Long.MAX_VALUE);
+                    }
+                } catch (Exception finishError) {
+                    ChunkTransformerMod.LOGGER.error("Failed to finish chunk after a failed commit", finishError);
+                } finally {
+                    // Always reported, it releases the chunk's claim and anything waiting on it
+                    current.onComplete.accept(false);
+                }
+                continue;
+            }
+            if (current.plan.isFinished()) {
+                active.pollFirst();
+                current.onComplete.accept(true);
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * Abandons every pending commit for a chunk that is about to unload. Server thread only.
+     */
+    public void onChunkUnload(ServerLevel level, LevelChunk chunk) {
+        drainSubmitted();
+        long chunkPos = chunk.getPos().toLong();
+        Iterator<PendingCommit> iterator = active.iterator();
+        while (iterator.hasNext()) {
+            PendingCommit pending = iterator.next();
+            if (pending.level != level || pending.plan.chunkPos != chunkPos) continue;
+            iterator.remove();
+            if (pending.plan.isStarted()) {
+                pending.plan.abandon(chunk);
+            }
+            pending.onComplete.accept(pending.plan.isComplete());
+        }
+    }
+
+    private void drainSubmitted() {
+        PendingCommit next;
+        while ((next = submitted.poll()) != null) {
+            active.addLast(next);
+        }
+    }
+
+    public void clear() {
+        submitted.clear();
+        active.clear();
+    }
+}
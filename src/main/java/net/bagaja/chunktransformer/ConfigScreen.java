@@ -6,6 +6,7 @@ import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.client.gui.components.Button;
 import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.components.Checkbox;
+import net.minecraft.client.gui.components.Tooltip;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.level.block.Block;
 import net.minecraftforge.registries.ForgeRegistries;
@@ -29,6 +30,7 @@ public class ConfigScreen extends Screen {
 
     // Performance option components
     private Checkbox enableOptimizationsCheckbox;
+    private Checkbox adaptiveThrottlingCheckbox;
     private EditBox maxBlocksPerTickBox;
     private EditBox chunksPerSecondBox;
     private EditBox radiusBox;
@@ -181,6 +183,17 @@ public class ConfigScreen extends Screen {
                 .size(buttonWidth, buttonHeight)
                 .build();
         this.addRenderableWidget(saveConfigButton);
+        rightColumnY += spacing;
+
+        // Adaptive throttling checkbox - the values above become caps when enabled
+        adaptiveThrottlingCheckbox = Checkbox.builder(
+                        Component.literal("Adaptive Throttling"),
+                        this.font)
+                .pos(rightColumn, rightColumnY)
+                .selected(ChunkTransformerMod.isAdaptiveThrottling())
+                .tooltip(Tooltip.create(Component.literal("Tunes speed from server MSPT, values above are caps")))
+                .build();
+        this.addRenderableWidget(adaptiveThrottlingCheckbox);
 
         // Bottom buttons
         Button applyButton = Button.builder(Component.literal("Apply Settings"), this::applySettings)
@@ -246,6 +259,7 @@ public class ConfigScreen extends Screen {
 
             // Apply settings
             ChunkTransformerMod.setOptimizationsEnabled(optimizations);
+            ChunkTransformerMod.setAdaptiveThrottling(adaptiveThrottlingCheckbox.selected());
             ChunkTransformerMod.setMaxBlocksPerTick(maxBlocks);
             ChunkTransformerMod.setChunksPerSecond(chunksPerSec);
             ChunkTransformerMod.setTransformRadius(radius);
@@ -0,0 +1,91 @@
+package net.bagaja.chunktransformer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The replacement rules of a running server, written to {@code chunktransformer_offline_rules.json} so
+ * {@link RegionTransformer} can apply them to region files without loading the game: the valid target
+ * blocks in selection order, and every block or block state that is never replaced. Plain data, no
+ * Minecraft classes.
+ */
+public class OfflineRules {
+    static final String FILE_NAME = "chunktransformer_offline_rules.json";
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public static class BlockEntry {
+        final String name;
+        final Map<String, String> properties;
+
+        public BlockEntry(String name, Map<String, String> properties) {
+            this.name = name;
+            this.properties = properties;
+        }
+    }
+
+    final List<BlockEntry> validBlocks;
+    // Blocks with every state skipped, and single skipped states of the remaining blocks
+    final Set<String> skipBlocks;
+    final Set<String> skipStates;
+    final boolean deterministicSelection;
+
+    public OfflineRules(List<BlockEntry> validBlocks, Set<String> skipBlocks, Set<String> skipStates, boolean deterministicSelection) {
+        this.validBlocks = validBlocks;
+        this.skipBlocks = skipBlocks;
+        this.skipStates = skipStates;
+        this.deterministicSelection = deterministicSelection;
+    }
+
+    /**
+     * {@code name[key=value,...]} with properties sorted by key, the same way for live states and palette
+     * entries read from disk.
+     */
+    static String stateKey(String name, Map<String, String> properties) {
+        if (properties == null || properties.isEmpty()) return name;
+        StringBuilder key = new StringBuilder(name).append('[');
+        boolean first = true;
+        for (Map.Entry<String, String> property : new TreeMap<>(properties).entrySet()) {
+            if (!first) key.append(',');
+            key.append(property.getKey()).append('=').append(property.getValue());
+            first = false;
+        }
+        return key.append(']').toString();
+    }
+
+    boolean isSkipped(String name, String stateKey) {
+        return skipBlocks.contains(name) || skipStates.contains(stateKey);
+    }
+
+    /**
+     * Writes to a temp file first, so {@link RegionTransformer} never reads half a rules file.
+     */
+    public void save(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            GSON.toJson(this, writer);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static OfflineRules load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            OfflineRules rules = GSON.fromJson(reader, OfflineRules.class);
+            if (rules == null || rules.validBlocks == null || rules.skipBlocks == null || rules.skipStates == null) {
+                throw new IOException("Incomplete rules file: " + path);
+            }
+            return rules;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package net.bagaja.chunktransformer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Transforms every fully generated chunk of a stopped world straight in its {@code .mca} region files,
+ * so a pre-generated map is done before anybody joins. Palettes are rewritten with the rules a running
+ * server exported to {@link OfflineRules#FILE_NAME}; heightmaps are dropped and light is marked stale,
+ * so the game recomputes both when the chunk is loaded. Every chunk gets the same {@code chunktransformer}
+ * tag {@link ChunkDataStore} writes, so the walk-in path skips it.
+ * <p>
+ * Regions are processed in parallel, one whole file per thread at a time, and only replaced once fully
+ * rewritten. Chunks stored in external {@code .mcc} files or with unsupported compression are left alone.
+ * <p>
+ * Needs only the mod jar and Gson on the classpath:
+ * {@code java -cp <mod jar>:<gson jar> net.bagaja.chunktransformer.RegionTransformer <world dir>
+ * [--dimension <id>] [--threads <n>] [--rules <file>] [--seed <n>]}
+ */
+public final class RegionTransformer {
+    private static final int SECTOR_BYTES = 4096;
+    private static final int HEADER_BYTES = 2 * SECTOR_BYTES;
+    private static final int MAX_SECTORS = 255;
+    private static final int SECTION_SIZE = 4096;
+    private static final byte COMPRESSION_GZIP = 1;
+    private static final byte COMPRESSION_ZLIB = 2;
+    private static final byte COMPRESSION_NONE = 3;
+    private static final int EXTERNAL_FLAG = 128;
+    private static final String DATA_KEY = ChunkTransformerMod.MODID;
+
+    private final OfflineRules rules;
+    private final String dimensionId;
+    private final long worldSeed;
+    private final AtomicInteger chunksTransformed = new AtomicInteger();
+    private final AtomicInteger regionsDone = new AtomicInteger();
+
+    private RegionTransformer(OfflineRules rules, String dimensionId, long worldSeed) {
+        this.rules = rules;
+        this.dimensionId = dimensionId;
+        this.worldSeed = worldSeed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) usage();
+        Path worldDir = Path.of(args[0]);
+        String dimensionId = "minecraft:overworld";
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path rulesPath = Path.of("config", OfflineRules.FILE_NAME);
+        Long seed = null;
+
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) usage();
+            switch (args[i]) {
+                case "--dimension" -> dimensionId = args[i + 1].contains(":") ? args[i + 1] : "minecraft:" + args[i + 1];
+                case "--threads" -> threads = Math.max(1, Integer.parseInt(args[i + 1]));
+                case "--rules" -> rulesPath = Path.of(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                default -> usage();
+            }
+        }
+
+        if (!Files.exists(rulesPath)) {
+            System.err.println("No rules file at " + rulesPath + ", start the server with the mod once to create it");
+            System.exit(1);
+        }
+        OfflineRules rules = OfflineRules.load(rulesPath);
+        if (rules.validBlocks.isEmpty()) {
+            System.err.println("The rules file lists no valid blocks, nothing to transform into");
+            System.exit(1);
+        }
+        if (seed == null && rules.deterministicSelection) {
+            seed = readWorldSeed(worldDir);
+        }
+
+        Path regionDir = regionDir(worldDir, dimensionId);
+        if (!Files.isDirectory(regionDir)) {
+            System.err.println("No region directory at " + regionDir);
+            System.exit(1);
+        }
+        new RegionTransformer(rules, dimensionId, seed != null ? seed : 0L).run(regionDir, threads);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: RegionTransformer <world dir> [--dimension <id>] [--threads <n>] [--rules <file>] [--seed <n>]");
+        System.exit(1);
+    }
+
+    private void run(Path regionDir, int threads) throws InterruptedException {
+        List<Path> regionFiles;
+        try (Stream<Path> files = Files.list(regionDir)) {
+            regionFiles = files.filter(path -> path.getFileName().toString().endsWith(".mca")).sorted().toList();
+        } catch (IOException e) {
+            System.err.println("Failed to list " + regionDir + ": " + e);
+            return;
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path regionFile : regionFiles) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        int transformed = transformRegion(regionFile);
+                        chunksTransformed.addAndGet(transformed);
+                        System.out.printf("[%d/%d] %s: %d chunks transformed%n",
+                                regionsDone.incrementAndGet(), regionFiles.size(), regionFile.getFileName(), transformed);
+                    } catch (Exception e) {
+                        regionsDone.incrementAndGet();
+                        System.err.println("Left " + regionFile.getFileName() + " unchanged: " + e);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    System.err.println("Region task failed: " + e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("Transformed %d chunks in %d regions in %.1f s%n",
+                chunksTransformed.get(), regionFiles.size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Rewrites one region file and returns the number of chunks transformed. The file is only replaced,
+     * atomically, if at least one chunk changed; a structurally broken file is never touched.
+     */
+    private int transformRegion(Path regionFile) throws IOException {
+        byte[] region = Files.readAllBytes(regionFile);
+        if (region.length < HEADER_BYTES) return 0;
+
+        ByteBuffer header = ByteBuffer.wrap(region);
+        int[] locations = new int[1024];
+        int[] timestamps = new int[1024];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(region.length);
+        bytes.write(new byte[HEADER_BYTES]);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int nextSector = HEADER_BYTES / SECTOR_BYTES;
+        int transformed = 0;
+        int now = (int) (System.currentTimeMillis() / 1000L);
+
+        for (int i = 0; i < 1024; i++) {
+            int location = header.getInt(i * 4);
+            timestamps[i] = header.getInt(SECTOR_BYTES + i * 4);
+            if (location == 0) continue;
+
+            int offset = (location >>> 8) * SECTOR_BYTES;
+            if (offset < HEADER_BYTES || offset + 5 > region.length) throw new IOException("Chunk " + i + " points outside the file");
+            int length = header.getInt(offset);
+            if (length <= 0 || offset + 4 + length > region.length) throw new IOException("Chunk " + i + " has a bad length");
+            byte compression = region[offset + 4];
+            byte[] payload = Arrays.copyOfRange(region, offset + 5, offset + 4 + length);
+
+            if ((compression & EXTERNAL_FLAG) == 0) {
+                try {
+                    byte[] rewritten = transformPayload(payload, compression);
+                    if (rewritten != null && sectorsFor(rewritten.length + 5) <= MAX_SECTORS) {
+                        payload = rewritten;
+                        timestamps[i] = now;
+                        transformed++;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Left chunk " + i + " of " + regionFile.getFileName() + " unchanged: " + e.getMessage());
+                }
+            }
+
+            int sectors = sectorsFor(payload.length + 5);
+            out.writeInt(payload.length + 1);
+            out.writeByte(compression);
+            out.write(payload);
+            out.write(new byte[sectors * SECTOR_BYTES - (payload.length + 5)]);
+            locations[i] = nextSector << 8 | sectors;
+            nextSector += sectors;
+        }
+        if (transformed == 0) return 0;
+
+        out.flush();
+        byte[] result = bytes.toByteArray();
+        ByteBuffer resultHeader = ByteBuffer.wrap(result);
+        for (int i = 0; i < 1024; i++) {
+            resultHeader.putInt(i * 4, locations[i]);
+            resultHeader.putInt(SECTOR_BYTES + i * 4, timestamps[i]);
+        }
+
+        Path tempFile = regionFile.resolveSibling(regionFile.getFileName() + ".tmp");
+        Files.write(tempFile, result);
+        Files.move(tempFile, regionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return transformed;
+    }
+
+    // Returns the recompressed chunk, or null if it is left as it is
+    private byte[] transformPayload(byte[] payload, byte compression) throws IOException {
+        InputStream raw = new ByteArrayInputStream(payload);
+        InputStream in = switch (compression) {
+            case COMPRESSION_GZIP -> new GZIPInputStream(raw);
+            case COMPRESSION_ZLIB -> new InflaterInputStream(raw);
+            case COMPRESSION_NONE -> raw;
+            default -> null;
+        };
+        if (in == null) return null;
+
+        Map<String, Object> chunk;
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            chunk = SimpleNbt.read(data);
+        }
+        if (!transformChunk(chunk)) return null;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length);
+        OutputStream compressed = switch (compression) {
+            case COMPRESSION_GZIP -> new GZIPOutputStream(bytes);
+            case COMPRESSION_ZLIB -> new DeflaterOutputStream(bytes);
+            default -> bytes;
+        };
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(compressed))) {
+            SimpleNbt.write(data, chunk);
+        }
+        return bytes.toByteArray();
+    }
+
+    private boolean transformChunk(Map<String, Object> chunk) throws IOException {
+        // Anything still generating would get more terrain placed on top later
+        Object status = chunk.get("Status");
+        if (!"minecraft:full".equals(status) && !"full".equals(status)) return false;
+        Map<String, Object> marker = SimpleNbt.compound(chunk.get(DATA_KEY));
+        if (marker != null && Byte.valueOf((byte) 1).equals(marker.get("transformed"))) return false;
+        if (!(chunk.get("xPos") instanceof Integer x) || !(chunk.get("zPos") instanceof Integer z)) return false;
+        SimpleNbt.ListTag sections = SimpleNbt.list(chunk.get("sections"));
+        if (sections == null) return false;
+
+        long chunkPos = (long) x & 0xFFFFFFFFL | ((long) z & 0xFFFFFFFFL) << 32;
+        OfflineRules.BlockEntry target = chooseTarget(chunkPos);
+        Map<String, Object> targetEntry = new LinkedHashMap<>();
+        targetEntry.put("Name", target.name);
+        if (target.properties != null && !target.properties.isEmpty()) {
+            targetEntry.put("Properties", new LinkedHashMap<String, Object>(target.properties));
+        }
+        String targetKey = OfflineRules.stateKey(target.name, target.properties);
+
+        // Replaced cells per section Y, to find the block entities that have to go
+        Map<Integer, long[]> replacedCells = new HashMap<>();
+        boolean changed = false;
+        for (Object sectionTag : sections) {
+            Map<String, Object> section = SimpleNbt.compound(sectionTag);
+            Map<String, Object> blockStates = section != null ? SimpleNbt.compound(section.get("block_states")) : null;
+            if (blockStates == null) continue;
+            long[] replaced = rewriteSection(blockStates, targetEntry, targetKey);
+            if (replaced == null) continue;
+            changed = true;
+            if (section.get("Y") instanceof Byte y) {
+                replacedCells.put((int) y, replaced);
+            }
+        }
+
+        if (changed) {
+            removeBlockEntities(chunk, replacedCells);
+            // Both are rebuilt by the game when the chunk loads
+            chunk.remove("Heightmaps");
+            chunk.put("isLightOn", (byte) 0);
+        }
+        // Marked even if nothing matched, the runtime path does the same for empty plans
+        marker = new LinkedHashMap<>();
+        marker.put("transformed", (byte) 1);
+        if (!rules.deterministicSelection) {
+            marker.put("block", target.name);
+        }
+        chunk.put(DATA_KEY, marker);
+        return true;
+    }
+
+    /**
+     * Maps every replaceable palette entry to the target, merges duplicates and repacks the cell data.
+     * Returns a bitmask of the replaced cells, or null if the section is unchanged.
+     */
+    private long[] rewriteSection(Map<String, Object> blockStates, Map<String, Object> targetEntry, String targetKey) throws IOException {
+        SimpleNbt.ListTag palette = SimpleNbt.list(blockStates.get("palette"));
+        if (palette == null || palette.isEmpty()) return null;
+
+        int size = palette.size();
+        boolean[] replace = new boolean[size];
+        int[] remap = new int[size];
+        boolean any = false;
+        SimpleNbt.ListTag newPalette = new SimpleNbt.ListTag(SimpleNbt.COMPOUND);
+        Map<String, Integer> newIndices = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> entry = SimpleNbt.compound(palette.get(i));
+            if (entry == null || !(entry.get("Name") instanceof String name)) throw new IOException("Malformed palette entry");
+            String key = OfflineRules.stateKey(name, properties(entry));
+            replace[i] = !key.equals(targetKey) && !rules.isSkipped(name, key);
+            any |= replace[i];
+
+            String keptKey = replace[i] ? targetKey : key;
+            Integer index = newIndices.get(keptKey);
+            if (index == null) {
+                index = newPalette.size();
+                newPalette.add(replace[i] ? targetEntry : entry);
+                newIndices.put(keptKey, index);
+            }
+            remap[i] = index;
+        }
+        if (!any) return null;
+
+        int[] cells = unpack(blockStates.get("data"), size);
+        long[] replacedCells = new long[SECTION_SIZE / 64];
+        for (int cell = 0; cell < SECTION_SIZE; cell++) {
+            if (replace[cells[cell]]) {
+                replacedCells[cell >> 6] |= 1L << cell;
+            }
+            cells[cell] = remap[cells[cell]];
+        }
+
+        blockStates.put("palette", newPalette);
+        if (newPalette.size() == 1) {
+            blockStates.remove("data");
+        } else {
+            blockStates.put("data", pack(cells, bitsFor(newPalette.size())));
+        }
+        return replacedCells;
+    }
+
+    private OfflineRules.BlockEntry chooseTarget(long chunkPos) {
+        List<OfflineRules.BlockEntry> validBlocks = rules.validBlocks;
+        int index = rules.deterministicSelection
+                ? BlockSelector.index(worldSeed, dimensionId, chunkPos, validBlocks.size())
+                : ThreadLocalRandom.current().nextInt(validBlocks.size());
+        return validBlocks.get(index);
+    }
+
+    private static void removeBlockEntities(Map<String, Object> chunk, Map<Integer, long[]> replacedCells) {
+        SimpleNbt.ListTag blockEntities = SimpleNbt.list(chunk.get("block_entities"));
+        if (blockEntities == null) return;
+        blockEntities.removeIf(tag -> {
+            Map<String, Object> blockEntity = SimpleNbt.compound(tag);
+            if (blockEntity == null || !(blockEntity.get("x") instanceof Integer x)
+                    || !(blockEntity.get("y") instanceof Integer y) || !(blockEntity.get("z") instanceof Integer z)) {
+                return false;
+            }
+            long[] cells = replacedCells.get(Math.floorDiv(y, 16));
+            if (cells == null) return false;
+            int cell = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+            return (cells[cell >> 6] & (1L << cell)) != 0;
+        });
+    }
+
+    private static Map<String, String> properties(Map<String, Object> entry) {
+        Map<String, Object> properties = SimpleNbt.compound(entry.get("Properties"));
+        if (properties == null) return Map.of();
+        Map<String, String> result = new HashMap<>();
+        properties.forEach((key, value) -> result.put(key, String.valueOf(value)));
+        return result;
+    }
+
+    // On disk a section uses 0 bits for a single entry, otherwise at least 4; entries never span two longs
+    private static int bitsFor(int paletteSize) {
+        if (paletteSize <= 1) return 0;
+        return Math.max(4, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    private static int[] unpack(Object data, int paletteSize) throws IOException {
+        int[] cells = new int[SECTION_SIZE];
+        int bits = bitsFor(paletteSize);
+        if (bits == 0) return cells;
+        if (!(data instanceof long[] words)) throw new IOException("Section has a palette but no data");
+
+        int perWord = 64 / bits;
+        if (words.length != (SECTION_SIZE + perWord - 1) / perWord) throw new IOException("Section data has the wrong length");
+        long mask = (1L << bits) - 1;
+        for (int cell = 0; cell < SECTION_SIZE; cell++) {
+            int index = (int) ((words[cell / perWord] >>> ((cell % perWord) * bits)) & mask);
+            if (index >= paletteSize) throw new IOException("Section data points outside its palette");
+            cells[cell] = index;
+        }
+        return cells;
+    }
+
+    private static long[] pack(int[] cells, int bits) {
+        int perWord = 64 / bits;
+        long[] words = new long[(SECTION_SIZE + perWord - 1) / perWord];
+        for (int cell = 0; cell < SECTION_SIZE; cell++) {
+            words[cell / perWord] |= (long) cells[cell] << ((cell % perWord) * bits);
+        }
+        return words;
+    }
+
+    private static int sectorsFor(int bytes) {
+        return (bytes + SECTOR_BYTES - 1) / SECTOR_BYTES;
+    }
+
+    private static long readWorldSeed(Path worldDir) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(worldDir.resolve("level.dat")))))) {
+            Map<String, Object> data = SimpleNbt.compound(SimpleNbt.read(in).get("Data"));
+            Map<String, Object> settings = data != null ? SimpleNbt.compound(data.get("WorldGenSettings")) : null;
+            if (settings == null || !(settings.get("seed") instanceof Long seed)) {
+                throw new IOException("No world seed in level.dat, pass it with --seed");
+            }
+            return seed;
+        }
+    }
+
+    private static Path regionDir(Path worldDir, String dimensionId) {
+        return switch (dimensionId) {
+            case "minecraft:overworld" -> worldDir.resolve("region");
+            case "minecraft:the_nether" -> worldDir.resolve("DIM-1").resolve("region");
+            case "minecraft:the_end" -> worldDir.resolve("DIM1").resolve("region");
+            default -> {
+                int colon = dimensionId.indexOf(':');
+                yield worldDir.resolve("dimensions").resolve(dimensionId.substring(0, colon))
+                        .resolve(dimensionId.substring(colon + 1)).resolve("region");
+            }
+        };
+    }
+}
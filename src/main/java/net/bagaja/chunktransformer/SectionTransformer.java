@@ -0,0 +1,474 @@
+package net.bagaja.chunktransformer;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.ai.village.poi.PoiTypes;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+import net.minecraft.world.level.lighting.LightEngine;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Rewrites chunk sections in place through their {@link PalettedContainer} instead of calling
+ * {@code Level.setBlock} for every block. Replace/skip and relight decisions are made once per
+ * palette entry, and light checks and heightmaps are batched until the whole chunk is written, see
+ * {@link ChunkCommit}. Clients are updated per block, per section or with one full chunk packet
+ * depending on how much changed, see {@link ClientSync}.
+ * <p>
+ * {@link #planSection} only reads the container it is given and is safe on a snapshot copy from any
+ * thread. Everything else touches live chunk data and must only run on the server thread.
+ */
+public final class SectionTransformer {
+    private static final int REPLACE = 1;
+    private static final int RELIGHT = 2;
+    // The old or the new state has a point of interest, like a bed, a job site or a portal
+    private static final int POI = 4;
+    private static final Direction[] DIRECTIONS = Direction.values();
+    // Every cell of a section in index order, shared by all plans that replace a section completely
+    private static final short[] ALL_CELLS = new short[LevelChunkSection.SECTION_SIZE];
+
+    static {
+        for (int i = 0; i < ALL_CELLS.length; i++) {
+            ALL_CELLS[i] = (short) i;
+        }
+    }
+
+    // Buffers reused by every plan and commit on a thread, so scanning and writing allocate nothing per cell
+    private static final class Scratch {
+        final short[] cells = new short[LevelChunkSection.SECTION_SIZE];
+        final Reference2IntOpenHashMap<BlockState> flags = new Reference2IntOpenHashMap<>();
+        final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        final BlockPos.MutableBlockPos neighbor = new BlockPos.MutableBlockPos();
+
+        Scratch() {
+            flags.defaultReturnValue(-1);
+        }
+
+        Reference2IntOpenHashMap<BlockState> flags() {
+            flags.clear();
+            return flags;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Position in a walk over the set bits of per-section cell bitmaps, so a pass over them can stop
+     * after any cell and pick up there on a later tick.
+     */
+    static final class CellCursor {
+        private int section = 0;
+        private int cell = 0;
+        private boolean done = false;
+
+        /**
+         * Returns the next set cell as {@code sectionIndex << 12 | cell}, or -1 once every section was walked.
+         */
+        int next(long[][] sections) {
+            while (section < sections.length) {
+                long[] bits = sections[section];
+                if (bits != null && cell < LevelChunkSection.SECTION_SIZE) {
+                    int word = cell >> 6;
+                    // Shifts only use the low six bits, which is the cell's position in its word
+                    long remaining = bits[word] & (-1L << cell);
+                    while (true) {
+                        if (remaining != 0) {
+                            int index = word << 6 | Long.numberOfTrailingZeros(remaining);
+                            cell = index + 1;
+                            return section << 12 | index;
+                        }
+                        if (++word == bits.length) break;
+                        remaining = bits[word];
+                    }
+                }
+                section++;
+                cell = 0;
+            }
+            done = true;
+            return -1;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        void reset() {
+            section = 0;
+            cell = 0;
+            done = false;
+        }
+    }
+
+    /**
+     * How tracking clients learn about a rewrite. A handful of blocks goes through the regular per-block
+     * change tracking, up to a section's worth is sent as one packet per finished section, and anything
+     * larger is written silently and followed by a single full chunk packet.
+     */
+    public enum ClientSync {
+        BLOCKS, SECTIONS, CHUNK;
+
+        private static final int BLOCK_SYNC_LIMIT = 64;
+
+        public static ClientSync forChangeCount(int changed) {
+            if (changed <= BLOCK_SYNC_LIMIT) return BLOCKS;
+            return changed <= LevelChunkSection.SECTION_SIZE ? SECTIONS : CHUNK;
+        }
+    }
+
+    /**
+     * Which neighbours are told about a rewrite once the chunk is written. {@code BOUNDARY} only notifies
+     * blocks that did not end up as the target: neighbours across the chunk's side faces and cells that
+     * were skipped, like fluids or spawners. Replaced cells next to each other need nothing, and are
+     * told apart from the changed-cell bits alone, so the inside of a solid rewrite never reads a block.
+     */
+    public enum NeighborUpdates {
+        NONE, BOUNDARY
+    }
+
+    private SectionTransformer() {}
+
+    public static int transformChunk(LevelChunk chunk, BlockState targetBlockState) {
+        LevelChunkSection[] sections = chunk.getSections();
+        short[][] cells = new short[sections.length][];
+        int planned = 0;
+        for (int i = 0; i < sections.length; i++) {
+            if (isUntouchable(sections[i])) continue;
+            cells[i] = planSection(sections[i].getStates(), targetBlockState);
+            if (cells[i] != null) planned += cells[i].length;
+        }
+        if (planned == 0) return 0;
+
+        ChunkCommit commit = new ChunkCommit(ClientSync.forChangeCount(planned), sections.length);
+        int changed = 0;
+        for (int i = 0; i < sections.length; i++) {
+            if (cells[i] == null) continue;
+            changed += applyCells(chunk, i, cells[i], 0, cells[i].length, targetBlockState, commit);
+            commit.finishSection(chunk, i);
+        }
+        if (changed > 0) {
+            commit.finish(chunk, targetBlockState, Integer.MAX_VALUE, Long.MAX_VALUE);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the section-local indices ({@code y << 8 | z << 4 | x}) of every cell that should be
+     * replaced, or {@code null} if nothing in the section needs to change. The returned array may be
+     * shared and must not be modified.
+     * <p>
+     * Sections whose palette holds nothing replaceable, and sections whose palette holds nothing but
+     * replaceable states, are decided from the palette alone without looking at a single cell.
+     */
+    public static short[] planSection(PalettedContainer<BlockState> states, BlockState targetBlockState) {
+        // A palette can keep states no cell uses any more, so both checks only ever err towards a full scan
+        if (!states.maybeHas(state -> flagsFor(state, targetBlockState) != 0)) return null;
+        if (!states.maybeHas(state -> flagsFor(state, targetBlockState) == 0)) return ALL_CELLS;
+
+        // Decide per palette entry instead of per cell: a section rarely holds more than a handful of states
+        Scratch scratch = SCRATCH.get();
+        Reference2IntOpenHashMap<BlockState> flags = scratch.flags();
+        short[] cells = scratch.cells;
+        int count = 0;
+        for (int index = 0; index < LevelChunkSection.SECTION_SIZE; index++) {
+            BlockState state = states.get(index & 15, index >> 8, (index >> 4) & 15);
+            int stateFlags = flags.getInt(state);
+            if (stateFlags < 0) {
+                stateFlags = flagsFor(state, targetBlockState);
+                flags.put(state, stateFlags);
+            }
+            if (stateFlags != 0) {
+                cells[count++] = (short) index;
+            }
+        }
+        return count == 0 ? null : Arrays.copyOf(cells, count);
+    }
+
+    /**
+     * Whether a section can be left alone for any target: only air, or only skip-listed states like an
+     * ocean section full of water.
+     */
+    public static boolean isUntouchable(LevelChunkSection section) {
+        return section.hasOnlyAir() || !section.maybeHas(state -> !ChunkTransformerMod.shouldSkipBlock(state));
+    }
+
+    /**
+     * Writes {@code targetBlockState} to {@code cells[from, to)} of one section. The live state of every
+     * cell is checked again, so a plan computed from an older snapshot never overwrites blocks that
+     * became skip-listed in the meantime.
+     * <p>
+     * Client updates and light checks are left to {@code commit}, nothing is relit here. What
+     * {@code LevelChunk.setBlockState} would keep in step right away still is: the chunk's sky light
+     * sources for cells whose light properties changed, and the level's point of interest records.
+     */
+    public static int applyCells(LevelChunk chunk, int sectionIndex, short[] cells, int from, int to, BlockState targetBlockState,
+                                 ChunkCommit commit) {
+        LevelChunkSection section = chunk.getSections()[sectionIndex];
+        ServerLevel level = (ServerLevel) chunk.getLevel();
+        ServerChunkCache chunkSource = level.getChunkSource();
+        int minX = chunk.getPos().getMinBlockX();
+        int minY = SectionPos.sectionToBlockCoord(chunk.getSectionYFromSectionIndex(sectionIndex));
+        int minZ = chunk.getPos().getMinBlockZ();
+        Scratch scratch = SCRATCH.get();
+        BlockPos.MutableBlockPos pos = scratch.pos;
+        Reference2IntMap<BlockState> flags = scratch.flags();
+        int changed = 0;
+
+        section.acquire();
+        try {
+            for (int i = from; i < to; i++) {
+                int index = cells[i];
+                int x = index & 15;
+                int y = index >> 8;
+                int z = (index >> 4) & 15;
+
+                BlockState currentState = section.getBlockState(x, y, z);
+                int stateFlags = flags.getInt(currentState);
+                if (stateFlags < 0) {
+                    stateFlags = flagsFor(currentState, targetBlockState);
+                    flags.put(currentState, stateFlags);
+                }
+                if ((stateFlags & REPLACE) == 0) continue;
+
+                section.setBlockState(x, y, z, targetBlockState, false);
+                pos.set(minX + x, minY + y, minZ + z);
+                if (currentState.hasBlockEntity()) {
+                    chunk.removeBlockEntity(pos);
+                }
+                if ((stateFlags & RELIGHT) != 0) {
+                    // The light checks queued at finish read these, so they must match the new blocks
+                    chunk.getSkyLightSources().update(chunk, x, minY + y, z);
+                    commit.markRelight(sectionIndex, index);
+                }
+                if ((stateFlags & POI) != 0) {
+                    level.onBlockStateChange(pos, currentState, targetBlockState);
+                }
+                commit.recordChange(chunkSource, sectionIndex, index, pos);
+                changed++;
+            }
+        } finally {
+            section.release();
+        }
+        return changed;
+    }
+
+    /**
+     * Hands the cells collected during a commit to the light engine, continuing from {@code cursor} until
+     * {@code maxCells} cells were handled or {@code deadlineNanos} passed, and returns how many were.
+     * <p>
+     * If the target is an opaque block that gives off no light, a cell whose six neighbours all ended up
+     * as the target is skipped: whatever light is left in it is sealed in and can't reach anything
+     * visible, and it is recomputed as soon as one of those neighbours changes. For a solid rewrite that
+     * leaves only the surface of the replaced volume to check.
+     */
+    static int relight(LevelChunk chunk, long[][] relightCells, CellCursor cursor, BlockState targetBlockState,
+                       int maxCells, long deadlineNanos) {
+        LevelLightEngine lightEngine = chunk.getLevel().getLightEngine();
+        boolean sealsLight = targetBlockState.getLightEmission() == 0 && targetBlockState.canOcclude()
+                && targetBlockState.getLightBlock() >= LightEngine.MAX_LEVEL;
+        Scratch scratch = SCRATCH.get();
+        BlockPos.MutableBlockPos pos = scratch.pos;
+        BlockPos.MutableBlockPos neighbor = scratch.neighbor;
+        int minX = chunk.getPos().getMinBlockX();
+        int minZ = chunk.getPos().getMinBlockZ();
+        int processed = 0;
+
+        while (processed < maxCells) {
+            int next = cursor.next(relightCells);
+            if (next < 0) break;
+            int index = next & 0xFFF;
+            int x = index & 15;
+            int z = (index >> 4) & 15;
+            int minY = SectionPos.sectionToBlockCoord(chunk.getSectionYFromSectionIndex(next >> 12));
+            pos.set(minX + x, minY + (index >> 8), minZ + z);
+            // Cells on the chunk's side faces always get checked, their neighbours may not be loaded
+            if (!sealsLight || x == 0 || x == 15 || z == 0 || z == 15
+                    || !enclosedBy(chunk, pos, neighbor, targetBlockState)) {
+                lightEngine.checkBlock(pos);
+            }
+            processed++;
+            if ((processed & 63) == 0 && System.nanoTime() >= deadlineNanos) break;
+        }
+        return processed;
+    }
+
+    /**
+     * Updates the light status of every section that changed, once all of its light checks are queued.
+     */
+    static void updateSectionStatus(LevelChunk chunk, boolean[] touchedSections) {
+        LevelLightEngine lightEngine = chunk.getLevel().getLightEngine();
+        for (int i = 0; i < touchedSections.length; i++) {
+            if (!touchedSections[i]) continue;
+            SectionPos sectionPos = SectionPos.of(chunk.getPos(), chunk.getSectionYFromSectionIndex(i));
+            lightEngine.updateSectionStatus(sectionPos, chunk.getSections()[i].hasOnlyAir());
+        }
+    }
+
+    /**
+     * Sends one neighbour update to every block next to a changed cell that is not air or the target,
+     * continuing from {@code cursor} until {@code maxCells} changed cells were handled or
+     * {@code deadlineNanos} passed, and returns how many were. Neighbours that were changed themselves
+     * are ruled out from {@code changedCells} without reading them, and neighbours in chunks that are
+     * not loaded are skipped. {@code notified} must be kept across calls for the same commit.
+     */
+    static int updateNeighbors(LevelChunk chunk, long[][] changedCells, CellCursor cursor, LongOpenHashSet notified,
+                               BlockState targetBlockState, int maxCells, long deadlineNanos) {
+        Level level = chunk.getLevel();
+        Block block = targetBlockState.getBlock();
+        Scratch scratch = SCRATCH.get();
+        BlockPos.MutableBlockPos pos = scratch.pos;
+        BlockPos.MutableBlockPos neighbor = scratch.neighbor;
+        int minX = chunk.getPos().getMinBlockX();
+        int minZ = chunk.getPos().getMinBlockZ();
+        int processed = 0;
+
+        while (processed < maxCells) {
+            int next = cursor.next(changedCells);
+            if (next < 0) break;
+            int sectionIndex = next >> 12;
+            int index = next & 0xFFF;
+            int x = index & 15;
+            int y = index >> 8;
+            int z = (index >> 4) & 15;
+            pos.set(minX + x, SectionPos.sectionToBlockCoord(chunk.getSectionYFromSectionIndex(sectionIndex)) + y, minZ + z);
+
+            for (Direction direction : DIRECTIONS) {
+                int neighborX = x + direction.getStepX();
+                int neighborY = y + direction.getStepY();
+                int neighborZ = z + direction.getStepZ();
+                boolean outside = neighborX < 0 || neighborX > 15 || neighborZ < 0 || neighborZ > 15;
+                if (!outside) {
+                    int neighborSection = sectionIndex + (neighborY >> 4);
+                    if (neighborSection < 0 || neighborSection >= changedCells.length) continue;
+                    long[] bits = changedCells[neighborSection];
+                    int neighborIndex = (neighborY & 15) << 8 | neighborZ << 4 | neighborX;
+                    if (bits != null && (bits[neighborIndex >> 6] & 1L << neighborIndex) != 0) continue;
+                }
+                neighbor.setWithOffset(pos, direction);
+                if (outside && !level.isLoaded(neighbor)) continue;
+                BlockState neighborState = outside ? level.getBlockState(neighbor) : chunk.getBlockState(neighbor);
+                if (neighborState.isAir() || neighborState == targetBlockState || !notified.add(neighbor.asLong())) continue;
+                level.neighborChanged(neighbor, block, null);
+            }
+            processed++;
+            if ((processed & 63) == 0 && System.nanoTime() >= deadlineNanos) break;
+        }
+        return processed;
+    }
+
+    private static boolean enclosedBy(LevelChunk chunk, BlockPos pos, BlockPos.MutableBlockPos neighbor, BlockState state) {
+        for (Direction direction : DIRECTIONS) {
+            if (chunk.getBlockState(neighbor.setWithOffset(pos, direction)) != state) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites a chunk that is still in the generation pipeline. It has not been lit or sent to any
+     * client yet, so only the block data and heightmaps need to change. Runs on the worldgen thread
+     * that owns the chunk.
+     */
+    public static int transformGenerating(ChunkAccess chunk, BlockState targetBlockState) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        LevelChunkSection[] sections = chunk.getSections();
+        int changed = 0;
+
+        for (int i = 0; i < sections.length; i++) {
+            LevelChunkSection section = sections[i];
+            if (isUntouchable(section)) continue;
+            short[] cells = planSection(section.getStates(), targetBlockState);
+            if (cells == null) continue;
+
+            SectionPos sectionPos = SectionPos.of(chunk.getPos(), chunk.getSectionYFromSectionIndex(i));
+            for (short cell : cells) {
+                int x = cell & 15;
+                int y = cell >> 8;
+                int z = (cell >> 4) & 15;
+                BlockState previous = section.setBlockState(x, y, z, targetBlockState);
+                if (previous.hasBlockEntity()) {
+                    chunk.removeBlockEntity(pos.set(sectionPos.minBlockX() + x, sectionPos.minBlockY() + y, sectionPos.minBlockZ() + z));
+                }
+            }
+            changed += cells.length;
+        }
+
+        if (changed > 0) {
+            primeHeightmaps(chunk);
+        }
+        return changed;
+    }
+
+    public static void finishChunk(LevelChunk chunk, ClientSync sync) {
+        primeHeightmaps(chunk);
+        chunk.markUnsaved();
+        if (sync == ClientSync.CHUNK) {
+            ServerChunkCache chunkSource = ((ServerLevel) chunk.getLevel()).getChunkSource();
+            sendToTracking(chunk, new ClientboundLevelChunkWithLightPacket(chunk, chunkSource.getLightEngine(), null, null));
+        }
+    }
+
+    /**
+     * For a chunk that unloads before its commit finished: the heightmaps are brought in line with what
+     * was written, and the chunk is saved as not lit, so the game relights all of it on its next load
+     * instead of running the light checks that were never queued.
+     */
+    public static void abandonChunk(LevelChunk chunk) {
+        primeHeightmaps(chunk);
+        chunk.setLightCorrect(false);
+        chunk.markUnsaved();
+    }
+
+    /**
+     * Sends the cells collected by {@link #applyCells} in {@link ClientSync#SECTIONS} mode as one packet.
+     */
+    public static void sendSectionChanges(LevelChunk chunk, int sectionIndex, ShortSet sectionChanges) {
+        if (sectionChanges.isEmpty()) return;
+        SectionPos sectionPos = SectionPos.of(chunk.getPos(), chunk.getSectionYFromSectionIndex(sectionIndex));
+        sendToTracking(chunk, new ClientboundSectionBlocksUpdatePacket(sectionPos, sectionChanges, chunk.getSections()[sectionIndex]));
+    }
+
+    private static void sendToTracking(LevelChunk chunk, Packet<?> packet) {
+        ServerChunkCache chunkSource = ((ServerLevel) chunk.getLevel()).getChunkSource();
+        for (ServerPlayer player : chunkSource.chunkMap.getPlayers(chunk.getPos(), false)) {
+            player.connection.send(packet);
+        }
+    }
+
+    private static void primeHeightmaps(ChunkAccess chunk) {
+        EnumSet<Heightmap.Types> types = EnumSet.noneOf(Heightmap.Types.class);
+        for (Map.Entry<Heightmap.Types, Heightmap> entry : chunk.getHeightmaps()) {
+            types.add(entry.getKey());
+        }
+        if (!types.isEmpty()) {
+            Heightmap.primeHeightmaps(chunk, types);
+        }
+    }
+
+    private static int flagsFor(BlockState state, BlockState targetBlockState) {
+        if (state == targetBlockState || ChunkTransformerMod.shouldSkipBlock(state)) return 0;
+        int flags = REPLACE;
+        if (LightEngine.hasDifferentLightProperties(state, targetBlockState)) flags |= RELIGHT;
+        if (PoiTypes.hasPoi(state) || PoiTypes.hasPoi(targetBlockState)) flags |= POI;
+        return flags;
+    }
+}
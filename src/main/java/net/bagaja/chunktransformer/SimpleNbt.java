@@ -0,0 +1,173 @@
+package net.bagaja.chunktransformer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Just enough of the NBT format to read and write chunk data without Minecraft on the classpath, for
+ * {@link RegionTransformer}. Compounds are {@code LinkedHashMap<String, Object>}, lists are
+ * {@link ListTag}, and every other tag is its boxed Java value or primitive array.
+ */
+final class SimpleNbt {
+    static final byte END = 0;
+    static final byte BYTE = 1;
+    static final byte SHORT = 2;
+    static final byte INT = 3;
+    static final byte LONG = 4;
+    static final byte FLOAT = 5;
+    static final byte DOUBLE = 6;
+    static final byte BYTE_ARRAY = 7;
+    static final byte STRING = 8;
+    static final byte LIST = 9;
+    static final byte COMPOUND = 10;
+    static final byte INT_ARRAY = 11;
+    static final byte LONG_ARRAY = 12;
+
+    // Keeps its element type, so empty lists are written back exactly as they were read
+    static final class ListTag extends ArrayList<Object> {
+        byte elementType;
+
+        ListTag(byte elementType) {
+            this.elementType = elementType;
+        }
+    }
+
+    private SimpleNbt() {}
+
+    static Map<String, Object> read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type != COMPOUND) throw new IOException("Root tag is not a compound: " + type);
+        in.readUTF();
+        return readCompound(in);
+    }
+
+    static void write(DataOutput out, Map<String, Object> root) throws IOException {
+        out.writeByte(COMPOUND);
+        out.writeUTF("");
+        writeCompound(out, root);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> compound(Object tag) {
+        return tag instanceof Map<?, ?> map ? (Map<String, Object>) map : null;
+    }
+
+    static ListTag list(Object tag) {
+        return tag instanceof ListTag list ? list : null;
+    }
+
+    private static Map<String, Object> readCompound(DataInput in) throws IOException {
+        Map<String, Object> compound = new LinkedHashMap<>();
+        byte type;
+        while ((type = in.readByte()) != END) {
+            String name = in.readUTF();
+            compound.put(name, readPayload(in, type));
+        }
+        return compound;
+    }
+
+    private static Object readPayload(DataInput in, byte type) throws IOException {
+        switch (type) {
+            case BYTE: return in.readByte();
+            case SHORT: return in.readShort();
+            case INT: return in.readInt();
+            case LONG: return in.readLong();
+            case FLOAT: return in.readFloat();
+            case DOUBLE: return in.readDouble();
+            case BYTE_ARRAY: {
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                return value;
+            }
+            case STRING: return in.readUTF();
+            case LIST: {
+                ListTag list = new ListTag(in.readByte());
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    list.add(readPayload(in, list.elementType));
+                }
+                return list;
+            }
+            case COMPOUND: return readCompound(in);
+            case INT_ARRAY: {
+                int[] value = new int[in.readInt()];
+                for (int i = 0; i < value.length; i++) value[i] = in.readInt();
+                return value;
+            }
+            case LONG_ARRAY: {
+                long[] value = new long[in.readInt()];
+                for (int i = 0; i < value.length; i++) value[i] = in.readLong();
+                return value;
+            }
+            default: throw new IOException("Unknown tag type: " + type);
+        }
+    }
+
+    private static void writeCompound(DataOutput out, Map<String, Object> compound) throws IOException {
+        for (Map.Entry<String, Object> entry : compound.entrySet()) {
+            byte type = typeOf(entry.getValue());
+            out.writeByte(type);
+            out.writeUTF(entry.getKey());
+            writePayload(out, type, entry.getValue());
+        }
+        out.writeByte(END);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(DataOutput out, byte type, Object value) throws IOException {
+        switch (type) {
+            case BYTE -> out.writeByte((Byte) value);
+            case SHORT -> out.writeShort((Short) value);
+            case INT -> out.writeInt((Integer) value);
+            case LONG -> out.writeLong((Long) value);
+            case FLOAT -> out.writeFloat((Float) value);
+            case DOUBLE -> out.writeDouble((Double) value);
+            case BYTE_ARRAY -> {
+                byte[] array = (byte[]) value;
+                out.writeInt(array.length);
+                out.write(array);
+            }
+            case STRING -> out.writeUTF((String) value);
+            case LIST -> {
+                ListTag list = (ListTag) value;
+                out.writeByte(list.isEmpty() ? list.elementType : typeOf(list.get(0)));
+                out.writeInt(list.size());
+                for (Object element : list) {
+                    writePayload(out, typeOf(element), element);
+                }
+            }
+            case COMPOUND -> writeCompound(out, (Map<String, Object>) value);
+            case INT_ARRAY -> {
+                int[] array = (int[]) value;
+                out.writeInt(array.length);
+                for (int element : array) out.writeInt(element);
+            }
+            case LONG_ARRAY -> {
+                long[] array = (long[]) value;
+                out.writeInt(array.length);
+                for (long element : array) out.writeLong(element);
+            }
+            default -> throw new IOException("Unknown tag type: " + type);
+        }
+    }
+
+    private static byte typeOf(Object value) throws IOException {
+        if (value instanceof Byte) return BYTE;
+        if (value instanceof Short) return SHORT;
+        if (value instanceof Integer) return INT;
+        if (value instanceof Long) return LONG;
+        if (value instanceof Float) return FLOAT;
+        if (value instanceof Double) return DOUBLE;
+        if (value instanceof byte[]) return BYTE_ARRAY;
+        if (value instanceof String) return STRING;
+        if (value instanceof ListTag) return LIST;
+        if (value instanceof Map<?, ?>) return COMPOUND;
+        if (value instanceof int[]) return INT_ARRAY;
+        if (value instanceof long[]) return LONG_ARRAY;
+        throw new IOException("Not an NBT value: " + value.getClass().getName());
+    }
+}
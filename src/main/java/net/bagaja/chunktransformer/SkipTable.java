@@ -0,0 +1,79 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.material.Fluids;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Precomputed "never replace" bit per block state, indexed by {@link Block#BLOCK_STATE_REGISTRY} id.
+ * Immutable once built; a new table is published when the state registry size, the registry ids or the
+ * user's skip list change, tracked by {@link BlockConfig#getSkipVersion}, so lookups from any thread are
+ * a single bit test. Enabling or disabling target blocks does not rebuild it.
+ */
+public final class SkipTable {
+    private static volatile SkipTable current = null;
+
+    private final long[] bits;
+    private final int registrySize;
+    private final int skipVersion;
+
+    private SkipTable(long[] bits, int registrySize, int skipVersion) {
+        this.bits = bits;
+        this.registrySize = registrySize;
+        this.skipVersion = skipVersion;
+    }
+
+    public static SkipTable get() {
+        SkipTable table = current;
+        BlockConfig blockConfig = ChunkTransformerMod.getBlockConfig();
+        if (table == null || table.registrySize != Block.BLOCK_STATE_REGISTRY.size() || table.skipVersion != blockConfig.getSkipVersion()) {
+            // Rebuilding is idempotent, so racing threads at worst build the same table twice
+            table = build(blockConfig);
+            current = table;
+        }
+        return table;
+    }
+
+    public boolean shouldSkip(BlockState state) {
+        int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+        // States the table doesn't know about (registered after it was built) are checked directly
+        if (id < 0 || id >= registrySize) return computeSkip(state, ChunkTransformerMod.getBlockConfig().getSkipBlocks());
+        return (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    private static SkipTable build(BlockConfig blockConfig) {
+        int skipVersion = blockConfig.getSkipVersion();
+        Set<String> userSkipBlocks = blockConfig.getSkipBlocks();
+        int size = Block.BLOCK_STATE_REGISTRY.size();
+        long[] bits = new long[(size + 63) >>> 6];
+        for (int id = 0; id < size; id++) {
+            BlockState state = Block.BLOCK_STATE_REGISTRY.byId(id);
+            if (state != null && computeSkip(state, userSkipBlocks)) {
+                bits[id >>> 6] |= 1L << id;
+            }
+        }
+        return new SkipTable(bits, size, skipVersion);
+    }
+
+    private static boolean computeSkip(BlockState state, Set<String> userSkipBlocks) {
+        Block block = state.getBlock();
+        if (block == Blocks.AIR ||
+                block == Blocks.SPAWNER ||
+                block == Blocks.END_PORTAL_FRAME ||
+                block == Blocks.WATER ||
+                block == Blocks.LAVA ||
+                state.getFluidState().is(Fluids.WATER) ||
+                state.getFluidState().is(Fluids.LAVA) ||
+                state.getFluidState().is(Fluids.FLOWING_WATER) ||
+                state.getFluidState().is(Fluids.FLOWING_LAVA)) {
+            return true;
+        }
+        return !userSkipBlocks.isEmpty() &&
+                userSkipBlocks.contains(Objects.requireNonNull(ForgeRegistries.BLOCKS.getKey(block)).toString());
+    }
+}
@@ -0,0 +1,260 @@
+package net.bagaja.chunktransformer;
+
+import com.google.gson.Gson;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Persists transformed chunk keys per world as a compact binary snapshot plus an append-only journal.
+ * New keys are queued by the server thread and written by a single writer thread in groups, so the
+ * tick never waits on disk. Once the journal holds more than half as many entries as the snapshot,
+ * and at least {@link #COMPACT_MIN_ENTRIES}, it is folded into a new snapshot. Growing the threshold
+ * with the snapshot keeps the total rewrite cost linear in the number of keys.
+ * <p>
+ * Crash safety: every group is forced to disk before the next one, a torn trailing journal entry is
+ * ignored on load, and snapshots are written to a temp file and atomically moved into place before
+ * the journal is dropped. Replaying a journal twice is harmless since keys go into a set.
+ * <p>
+ * Compaction only ever folds what is already on disk, never the live in-memory set, so a snapshot
+ * holds exactly the keys that were appended.
+ */
+public class TransformJournal {
+    private static final String FILE_PREFIX = "chunktransformer_transformed_chunks_";
+    private static final int SNAPSHOT_MAGIC = 0x43544353; // "CTCS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = 12;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final long FLUSH_TIMEOUT_MS = 5000;
+    private static final int COMPACT_MIN_ENTRIES = 4096;
+
+    private static class Entry {
+        final String worldId;
+        final long chunkPos;
+
+        Entry(String worldId, long chunkPos) {
+            this.worldId = worldId;
+            this.chunkPos = chunkPos;
+        }
+    }
+
+    private final Path directory;
+    private final LatencyHistogram flushLatency;
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ChunkTransformer-Journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TransformJournal(Path directory, LatencyHistogram flushLatency) {
+        this.directory = directory;
+        this.flushLatency = flushLatency;
+        writer.scheduleWithFixedDelay(this::flushPending, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void append(String worldId, long chunkPos) {
+        pending.offer(new Entry(worldId, chunkPos));
+    }
+
+    public void discardPending() {
+        pending.clear();
+    }
+
+    /**
+     * Writes everything queued so far and waits for it, up to {@link #FLUSH_TIMEOUT_MS}.
+     */
+    public void flush() {
+        if (writer.isShutdown()) {
+            flushPending();
+            return;
+        }
+        try {
+            writer.submit(this::flushPending).get(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            ChunkTransformerMod.LOGGER.error("Failed to flush transformed chunk journal", e);
+        }
+    }
+
+    public void close() {
+        flush();
+        writer.shutdown();
+    }
+
+    public ChunkBitmapSet load(String worldId) {
+        // Older versions rewrote the whole set as JSON; migrate it into a snapshot on first load
+        Path legacyPath = directory.resolve(FILE_PREFIX + worldId + ".json");
+        ChunkBitmapSet legacyChunks = null;
+        if (Files.exists(legacyPath)) {
+            try (Reader reader = Files.newBufferedReader(legacyPath)) {
+                long[] loadedChunks = new Gson().fromJson(reader, long[].class);
+                legacyChunks = new ChunkBitmapSet();
+                if (loadedChunks != null) {
+                    legacyChunks.addAll(loadedChunks);
+                }
+            } catch (Exception e) {
+                ChunkTransformerMod.LOGGER.error("Failed to load legacy transformed chunks for world: " + worldId, e);
+            }
+        }
+
+        ChunkBitmapSet chunks;
+        try {
+            chunks = readPersisted(worldId);
+        } catch (IOException e) {
+            ChunkTransformerMod.LOGGER.error("Failed to load transformed chunks for world: " + worldId, e);
+            chunks = new ChunkBitmapSet();
+        }
+        if (legacyChunks != null) {
+            legacyChunks.forEach(chunks::add);
+            ChunkBitmapSet migrated = legacyChunks;
+            writer.execute(() -> {
+                // Read the files again on the writer thread, they may have grown since this load
+                if (compact(worldId, migrated)) {
+                    try {
+                        Files.deleteIfExists(legacyPath);
+                    } catch (IOException e) {
+                        ChunkTransformerMod.LOGGER.error("Failed to delete legacy transformed chunks file: " + legacyPath, e);
+                    }
+                }
+            });
+        }
+        return chunks;
+    }
+
+    /**
+     * Everything in the snapshot and journal files of one world. Throws rather than returning a partial
+     * set, so a compaction never replaces a snapshot it could not read.
+     */
+    private ChunkBitmapSet readPersisted(String worldId) throws IOException {
+        ChunkBitmapSet chunks = new ChunkBitmapSet();
+        Path snapshotPath = getSnapshotPath(worldId);
+        if (Files.exists(snapshotPath)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+            if (buffer.remaining() >= SNAPSHOT_HEADER_BYTES && buffer.getInt() == SNAPSHOT_MAGIC && buffer.getInt() == SNAPSHOT_VERSION) {
+                int count = Math.min(buffer.getInt(), buffer.remaining() / Long.BYTES);
+                for (int i = 0; i < count; i++) {
+                    chunks.add(buffer.getLong());
+                }
+            } else {
+                ChunkTransformerMod.LOGGER.warn("Ignoring unrecognised transformed chunk snapshot: " + snapshotPath);
+            }
+        }
+
+        Path journalPath = getJournalPath(worldId);
+        if (Files.exists(journalPath)) {
+            // A crash mid-append can leave a partial trailing entry; only whole entries are replayed
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+            while (buffer.remaining() >= Long.BYTES) {
+                chunks.add(buffer.getLong());
+            }
+        }
+        return chunks;
+    }
+
+    // Writer thread only
+    private void flushPending() {
+        // Group commit: everything queued since the last flush goes out as one write per world
+        Map<String, LongArrayList> byWorld = new HashMap<>();
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            byWorld.computeIfAbsent(entry.worldId, k -> new LongArrayList()).add(entry.chunkPos);
+        }
+
+        byWorld.forEach((worldId, chunkPositions) -> {
+            Path journalPath = getJournalPath(worldId);
+            long start = System.nanoTime();
+            try {
+                Files.createDirectories(directory);
+                long journalEntries;
+                try (FileChannel channel = FileChannel.open(journalPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(chunkPositions.size() * Long.BYTES);
+                    for (int i = 0; i < chunkPositions.size(); i++) {
+                        buffer.putLong(chunkPositions.getLong(i));
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                    journalEntries = channel.size() / Long.BYTES;
+                }
+                flushLatency.record(System.nanoTime() - start);
+
+                if (journalEntries > Math.max(COMPACT_MIN_ENTRIES, snapshotEntries(worldId) / 2)) {
+                    compact(worldId, null);
+                }
+            } catch (IOException e) {
+                ChunkTransformerMod.LOGGER.error("Failed to append transformed chunks for world: " + worldId, e);
+            }
+        });
+    }
+
+    // Writer thread only; folds the journal, plus any extra keys, into a new snapshot
+    private boolean compact(String worldId, ChunkBitmapSet extraChunks) {
+        Path snapshotPath = getSnapshotPath(worldId);
+        Path tempPath = directory.resolve(FILE_PREFIX + worldId + ".bin.tmp");
+        try {
+            ChunkBitmapSet chunks = readPersisted(worldId);
+            if (extraChunks != null) {
+                extraChunks.forEach(chunks::add);
+            }
+            long[] chunkPositions = chunks.toLongArray();
+            ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES + chunkPositions.length * Long.BYTES);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(chunkPositions.length);
+            for (long chunkPos : chunkPositions) {
+                buffer.putLong(chunkPos);
+            }
+            buffer.flip();
+
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(tempPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tempPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // The snapshot already holds every journaled key, so the journal can go
+            Files.deleteIfExists(getJournalPath(worldId));
+            return true;
+        } catch (IOException e) {
+            ChunkTransformerMod.LOGGER.error("Failed to compact transformed chunks for world: " + worldId, e);
+            return false;
+        }
+    }
+
+    // Taken from the file size, so deciding to compact never reads the snapshot itself
+    private long snapshotEntries(String worldId) throws IOException {
+        Path snapshotPath = getSnapshotPath(worldId);
+        if (!Files.exists(snapshotPath)) return 0;
+        return Math.max(0, Files.size(snapshotPath) - SNAPSHOT_HEADER_BYTES) / Long.BYTES;
+    }
+
+    private Path getSnapshotPath(String worldId) {
+        return directory.resolve(FILE_PREFIX + worldId + ".bin");
+    }
+
+    private Path getJournalPath(String worldId) {
+        return directory.resolve(FILE_PREFIX + worldId + ".journal");
+    }
+}
@@ -0,0 +1,213 @@
+package net.bagaja.chunktransformer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and latency histograms for the transform pipeline, shown by
+ * {@code /chunktransformer stats} and written to {@code chunktransformer_metrics.json} and
+ * {@code chunktransformer_metrics.prom} (Prometheus text format) for scraping. Recording is lock-free
+ * and can happen on any thread. Gauges are sampled on the server thread, at most once a second.
+ */
+public class TransformMetrics {
+    static final String JSON_FILE = "chunktransformer_metrics.json";
+    static final String PROMETHEUS_FILE = "chunktransformer_metrics.prom";
+    private static final String PREFIX = "chunktransformer_";
+    private static final long SAMPLE_INTERVAL_NANOS = 1_000_000_000L;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    // Planning one chunk on a worker thread
+    final LatencyHistogram scanNanos = new LatencyHistogram();
+    // Committing on the server thread, per tick that had anything to commit
+    final LatencyHistogram commitTickNanos = new LatencyHistogram();
+    // Writing and syncing one group of journal entries
+    final LatencyHistogram flushNanos = new LatencyHistogram();
+    private final LongAdder blocksWritten = new LongAdder();
+    private final LongAdder chunksTransformed = new LongAdder();
+    private final LongAdder chunksFailed = new LongAdder();
+
+    private volatile int queueDepth;
+    private volatile int queueLanes;
+    private volatile int processingChunks;
+    private volatile int pendingCommits;
+    private volatile double blocksPerSecond;
+    // Server thread only
+    private long lastSampleNanos = 0;
+    private long lastSampleBlocks = 0;
+
+    void recordCommitTick(int blocks, long nanos) {
+        if (blocks <= 0) return;
+        blocksWritten.add(blocks);
+        commitTickNanos.record(nanos);
+    }
+
+    void recordChunk(boolean transformed) {
+        (transformed ? chunksTransformed : chunksFailed).increment();
+    }
+
+    /**
+     * Whether the gauges are due for another {@link #sample}; cheap to call every tick.
+     */
+    boolean shouldSample() {
+        return lastSampleNanos == 0 || System.nanoTime() - lastSampleNanos >= SAMPLE_INTERVAL_NANOS;
+    }
+
+    /**
+     * Updates the gauges and blocks per second.
+     */
+    void sample(int queueDepth, int queueLanes, int processingChunks, int pendingCommits) {
+        long now = System.nanoTime();
+        long blocks = blocksWritten.sum();
+        if (lastSampleNanos != 0) {
+            blocksPerSecond = (blocks - lastSampleBlocks) * 1_000_000_000.0 / (now - lastSampleNanos);
+        }
+        lastSampleNanos = now;
+        lastSampleBlocks = blocks;
+        this.queueDepth = queueDepth;
+        this.queueLanes = queueLanes;
+        this.processingChunks = processingChunks;
+        this.pendingCommits = pendingCommits;
+    }
+
+    void reset() {
+        scanNanos.reset();
+        commitTickNanos.reset();
+        flushNanos.reset();
+        blocksWritten.reset();
+        chunksTransformed.reset();
+        chunksFailed.reset();
+        lastSampleNanos = 0;
+        lastSampleBlocks = 0;
+        blocksPerSecond = 0;
+    }
+
+    /**
+     * Human-readable lines for the stats command.
+     */
+    List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "Queue: %d chunks in %d lanes, %d processing, %d commits pending",
+                queueDepth, queueLanes, processingChunks, pendingCommits));
+        lines.add(String.format(Locale.ROOT, "Throughput: %.0f blocks/s, %d blocks, %d chunks transformed, %d failed",
+                blocksPerSecond, blocksWritten.sum(), chunksTransformed.sum(), chunksFailed.sum()));
+        lines.add(describe("Scan per chunk", scanNanos.snapshot()));
+        lines.add(describe("Commit per tick", commitTickNanos.snapshot()));
+        lines.add(describe("Journal flush", flushNanos.snapshot()));
+        return lines;
+    }
+
+    private static String describe(String name, LatencyHistogram.Snapshot snapshot) {
+        return String.format(Locale.ROOT, "%s: n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                name, snapshot.count(), snapshot.mean() / 1e6, snapshot.p50() / 1e6, snapshot.p90() / 1e6,
+                snapshot.p99() / 1e6, snapshot.max() / 1e6);
+    }
+
+    /**
+     * Writes both dump files, each to a temp file first so a scraper never reads half a file.
+     */
+    void dump(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            write(directory.resolve(JSON_FILE), GSON.toJson(toJson()));
+            write(directory.resolve(PROMETHEUS_FILE), toPrometheus());
+        } catch (IOException e) {
+            ChunkTransformerMod.LOGGER.error("Failed to write transform metrics", e);
+        }
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temp, content);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Map<String, Object> toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("timestamp", System.currentTimeMillis());
+        json.put("queueDepth", queueDepth);
+        json.put("queueLanes", queueLanes);
+        json.put("processingChunks", processingChunks);
+        json.put("pendingCommits", pendingCommits);
+        json.put("blocksPerSecond", blocksPerSecond);
+        json.put("blocksWritten", blocksWritten.sum());
+        json.put("chunksTransformed", chunksTransformed.sum());
+        json.put("chunksFailed", chunksFailed.sum());
+        json.put("scanNanos", toJson(scanNanos.snapshot()));
+        json.put("commitTickNanos", toJson(commitTickNanos.snapshot()));
+        json.put("flushNanos", toJson(flushNanos.snapshot()));
+        return json;
+    }
+
+    private static Map<String, Object> toJson(LatencyHistogram.Snapshot snapshot) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("count", snapshot.count());
+        json.put("sum", snapshot.sum());
+        json.put("max", snapshot.max());
+        json.put("p50", snapshot.p50());
+        json.put("p90", snapshot.p90());
+        json.put("p99", snapshot.p99());
+        json.put("p999", snapshot.p999());
+        return json;
+    }
+
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        gauge(out, "queue_depth", "Chunks waiting in the transform queue", queueDepth);
+        gauge(out, "queue_lanes", "Player lanes with queued chunks", queueLanes);
+        gauge(out, "processing_chunks", "Chunks between snapshot and finished commit", processingChunks);
+        gauge(out, "pending_commits", "Planned chunks waiting to be committed", pendingCommits);
+        gauge(out, "blocks_per_second", "Blocks committed per second over the last sample", blocksPerSecond);
+        counter(out, "blocks_written_total", "Blocks committed", blocksWritten.sum());
+        counter(out, "chunks_transformed_total", "Chunks transformed", chunksTransformed.sum());
+        counter(out, "chunks_failed_total", "Chunks whose transform was abandoned", chunksFailed.sum());
+        summary(out, "scan_seconds", "Time to plan one chunk", scanNanos.snapshot());
+        summary(out, "commit_tick_seconds", "Commit time per tick with work", commitTickNanos.snapshot());
+        summary(out, "journal_flush_seconds", "Time to write and sync one journal group", flushNanos.snapshot());
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(PREFIX).append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram.Snapshot snapshot) {
+        header(out, name, help, "summary");
+        quantile(out, name, "0.5", snapshot.p50());
+        quantile(out, name, "0.9", snapshot.p90());
+        quantile(out, name, "0.99", snapshot.p99());
+        quantile(out, name, "0.999", snapshot.p999());
+        out.append(PREFIX).append(name).append("_sum ").append(format(snapshot.sum() / 1e9)).append('\n');
+        out.append(PREFIX).append(name).append("_count ").append(snapshot.count()).append('\n');
+    }
+
+    private static void quantile(StringBuilder out, String name, String quantile, long nanos) {
+        out.append(PREFIX).append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                .append(format(nanos / 1e9)).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+}
@@ -0,0 +1,141 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The cells of one chunk that should be rewritten, grouped by section. Computed off-thread from a
+ * {@link ChunkSnapshot} and committed on the server thread a slice at a time, so the commit cursor is
+ * only ever touched by the server thread.
+ * <p>
+ * In parallel mode the sections of one chunk are scanned as separate fork-join tasks and merged back
+ * into a single plan, so a planner thread with a big chunk hands work to idle ones.
+ */
+public class TransformPlan {
+    // Re-check the deadline at least this often while committing
+    private static final int COMMIT_SLICE = 256;
+
+    final long chunkPos;
+    final BlockState targetBlockState;
+    private final int[] sectionIndices;
+    private final short[][] cells;
+    private final int totalBlocks;
+    private final ChunkCommit commit;
+
+    private int sectionCursor = 0;
+    private int cellCursor = 0;
+
+    private TransformPlan(long chunkPos, BlockState targetBlockState, int sectionCount, int[] sectionIndices, short[][] cells, int totalBlocks) {
+        this.chunkPos = chunkPos;
+        this.targetBlockState = targetBlockState;
+        this.sectionIndices = sectionIndices;
+        this.cells = cells;
+        this.totalBlocks = totalBlocks;
+        this.commit = new ChunkCommit(SectionTransformer.ClientSync.forChangeCount(totalBlocks), sectionCount);
+    }
+
+    /**
+     * Plans every section of {@code snapshot}. With {@code parallel} set and called from a fork-join
+     * worker, sections are scanned concurrently on that pool.
+     */
+    public static TransformPlan compute(ChunkSnapshot snapshot, BlockState targetBlockState, boolean parallel) {
+        short[][] scanned = new short[snapshot.sections.length][];
+        if (parallel && ForkJoinTask.inForkJoinPool()) {
+            List<ForkJoinTask<?>> scans = new ArrayList<>();
+            for (int i = 0; i < snapshot.sections.length; i++) {
+                if (snapshot.sections[i] == null) continue;
+                int index = i;
+                scans.add(ForkJoinTask.adapt(() -> {
+                    scanned[index] = SectionTransformer.planSection(snapshot.sections[index], targetBlockState);
+                }));
+            }
+            // Every task writes its own slot; joining them makes the results visible here
+            ForkJoinTask.invokeAll(scans);
+        } else {
+            for (int i = 0; i < snapshot.sections.length; i++) {
+                if (snapshot.sections[i] == null) continue;
+                scanned[i] = SectionTransformer.planSection(snapshot.sections[i], targetBlockState);
+            }
+        }
+
+        int[] sectionIndices = new int[snapshot.sections.length];
+        short[][] cells = new short[snapshot.sections.length][];
+        int sectionCount = 0;
+        int totalBlocks = 0;
+
+        for (int i = 0; i < scanned.length; i++) {
+            short[] sectionCells = scanned[i];
+            if (sectionCells == null || sectionCells.length == 0) continue;
+            sectionIndices[sectionCount] = i;
+            cells[sectionCount] = sectionCells;
+            sectionCount++;
+            totalBlocks += sectionCells.length;
+        }
+
+        return new TransformPlan(snapshot.chunkPos, targetBlockState, snapshot.sections.length,
+                Arrays.copyOf(sectionIndices, sectionCount), Arrays.copyOf(cells, sectionCount), totalBlocks);
+    }
+
+    public boolean isEmpty() {
+        return totalBlocks == 0;
+    }
+
+    public boolean isComplete() {
+        return sectionCursor >= sectionIndices.length;
+    }
+
+    public boolean isStarted() {
+        return sectionCursor > 0 || cellCursor > 0;
+    }
+
+    public int getTotalBlocks() {
+        return totalBlocks;
+    }
+
+    /**
+     * Runs the batched light, heightmap and client work for everything committed so far, within the
+     * same kind of budget as {@link #commit}, and returns how many cells it handled. Called after the
+     * last cell, or after the commit failed partway, until {@link #isFinished}.
+     */
+    public int finish(LevelChunk chunk, int maxCells, long deadlineNanos) {
+        return commit.finish(chunk, targetBlockState, maxCells, deadlineNanos);
+    }
+
+    public boolean isFinished() {
+        return commit.isFinished();
+    }
+
+    /**
+     * Called instead of {@link #finish} when the chunk unloads before the commit is done.
+     */
+    public void abandon(LevelChunk chunk) {
+        commit.abandon(chunk);
+    }
+
+    /**
+     * Commits planned cells until {@code maxBlocks} cells were processed or {@code deadlineNanos} passed,
+     * and returns how many cells were processed. Server thread only.
+     */
+    public int commit(LevelChunk chunk, int maxBlocks, long deadlineNanos) {
+        int processed = 0;
+        while (!isComplete() && processed < maxBlocks && System.nanoTime() < deadlineNanos) {
+            short[] sectionCells = cells[sectionCursor];
+            int end = Math.min(sectionCells.length, cellCursor + Math.min(COMMIT_SLICE, maxBlocks - processed));
+            SectionTransformer.applyCells(chunk, sectionIndices[sectionCursor], sectionCells, cellCursor, end, targetBlockState,
+                    commit);
+            processed += end - cellCursor;
+            cellCursor = end;
+            if (cellCursor == sectionCells.length) {
+                commit.finishSection(chunk, sectionIndices[sectionCursor]);
+                sectionCursor++;
+                cellCursor = 0;
+            }
+        }
+        return processed;
+    }
+}
@@ -0,0 +1,195 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Pending chunk transforms, closest first. Each chunk is queued at most once per dimension. Its priority
+ * is the distance to the nearest player in that dimension and is re-scored whenever a player there
+ * moves; tasks no player is near any more are dropped through the {@code onDropped} callback.
+ * <p>
+ * Work is still split into one lane per requesting player and dimension, and lanes are served
+ * round-robin so one fast-moving player cannot starve everybody else.
+ */
+public class TransformQueue<T> {
+    private record Lane(UUID player, ResourceKey<Level> dimension) {}
+    record ChunkKey(ResourceKey<Level> dimension, long chunkPos) {}
+    private record PlayerPos(ResourceKey<Level> dimension, int chunkX, int chunkZ) {}
+
+    private static final class QueuedTask<T> {
+        final ChunkKey key;
+        final Lane lane;
+        final T task;
+        int distance;
+
+        QueuedTask(ChunkKey key, Lane lane, T task, int distance) {
+            this.key = key;
+            this.lane = lane;
+            this.task = task;
+            this.distance = distance;
+        }
+    }
+
+    private final Consumer<T> onDropped;
+    private final Map<ChunkKey, QueuedTask<T>> byChunk = new HashMap<>();
+    private final Map<Lane, PriorityQueue<QueuedTask<T>>> lanes = new HashMap<>();
+    // Lanes with pending work, in the order they get their next turn
+    private final ArrayDeque<Lane> rotation = new ArrayDeque<>();
+    private final Map<UUID, PlayerPos> players = new HashMap<>();
+
+    public TransformQueue(Consumer<T> onDropped) {
+        this.onDropped = onDropped;
+    }
+
+    /**
+     * Queues a task unless the same chunk is already queued; returns whether it was added.
+     */
+    public synchronized boolean offer(UUID player, ResourceKey<Level> dimension, long chunkPos, T task) {
+        ChunkKey key = new ChunkKey(dimension, chunkPos);
+        if (byChunk.containsKey(key)) return false;
+
+        Lane lane = new Lane(player, dimension);
+        QueuedTask<T> queued = new QueuedTask<>(key, lane, task, distanceToNearestPlayer(key));
+        byChunk.put(key, queued);
+        PriorityQueue<QueuedTask<T>> queue = lanes.get(lane);
+        if (queue == null) {
+            queue = newLaneQueue();
+            lanes.put(lane, queue);
+            rotation.addLast(lane);
+        }
+        queue.add(queued);
+        return true;
+    }
+
+    public synchronized T poll() {
+        Lane lane = rotation.pollFirst();
+        if (lane == null) return null;
+
+        PriorityQueue<QueuedTask<T>> queue = lanes.get(lane);
+        QueuedTask<T> queued = queue.poll();
+        if (queue.isEmpty()) {
+            lanes.remove(lane);
+        } else {
+            rotation.addLast(lane);
+        }
+        byChunk.remove(queued.key);
+        return queued.task;
+    }
+
+    /**
+     * Removes the queued task for a chunk, if any, and hands it to {@code onDropped}.
+     */
+    public void cancel(ResourceKey<Level> dimension, long chunkPos) {
+        T cancelled;
+        synchronized (this) {
+            QueuedTask<T> queued = byChunk.remove(new ChunkKey(dimension, chunkPos));
+            if (queued == null) return;
+            PriorityQueue<QueuedTask<T>> queue = lanes.get(queued.lane);
+            queue.remove(queued);
+            if (queue.isEmpty()) {
+                lanes.remove(queued.lane);
+                rotation.remove(queued.lane);
+            }
+            cancelled = queued.task;
+        }
+        onDropped.accept(cancelled);
+    }
+
+    /**
+     * Records a player's new chunk and re-scores that dimension, dropping tasks further than
+     * {@code maxDistance} chunks from every player in it.
+     */
+    public void updatePlayer(UUID player, ResourceKey<Level> dimension, ChunkPos chunkPos, int maxDistance) {
+        List<T> dropped = new ArrayList<>();
+        synchronized (this) {
+            PlayerPos previous = players.put(player, new PlayerPos(dimension, chunkPos.x, chunkPos.z));
+            rescore(dimension, maxDistance, dropped);
+            if (previous != null && previous.dimension() != dimension) {
+                rescore(previous.dimension(), maxDistance, dropped);
+            }
+        }
+        // Callbacks run outside the lock
+        dropped.forEach(onDropped);
+    }
+
+    public void removePlayer(UUID player, int maxDistance) {
+        List<T> dropped = new ArrayList<>();
+        synchronized (this) {
+            PlayerPos previous = players.remove(player);
+            if (previous != null) {
+                rescore(previous.dimension(), maxDistance, dropped);
+            }
+        }
+        dropped.forEach(onDropped);
+    }
+
+    public synchronized int size() {
+        return byChunk.size();
+    }
+
+    public synchronized int laneCount() {
+        return lanes.size();
+    }
+
+    public synchronized void clear() {
+        byChunk.clear();
+        lanes.clear();
+        rotation.clear();
+        players.clear();
+    }
+
+    private void rescore(ResourceKey<Level> dimension, int maxDistance, List<T> dropped) {
+        Iterator<Map.Entry<Lane, PriorityQueue<QueuedTask<T>>>> laneIterator = lanes.entrySet().iterator();
+        while (laneIterator.hasNext()) {
+            Map.Entry<Lane, PriorityQueue<QueuedTask<T>>> entry = laneIterator.next();
+            if (entry.getKey().dimension() != dimension) continue;
+
+            // Priorities changed, so the heap has to be rebuilt rather than updated in place
+            PriorityQueue<QueuedTask<T>> rescored = newLaneQueue();
+            for (QueuedTask<T> queued : entry.getValue()) {
+                queued.distance = distanceToNearestPlayer(queued.key);
+                if (queued.distance > maxDistance) {
+                    byChunk.remove(queued.key);
+                    dropped.add(queued.task);
+                } else {
+                    rescored.add(queued);
+                }
+            }
+
+            if (rescored.isEmpty()) {
+                laneIterator.remove();
+                rotation.remove(entry.getKey());
+            } else {
+                entry.setValue(rescored);
+            }
+        }
+    }
+
+    private int distanceToNearestPlayer(ChunkKey key) {
+        int chunkX = ChunkPos.getX(key.chunkPos());
+        int chunkZ = ChunkPos.getZ(key.chunkPos());
+        int nearest = Integer.MAX_VALUE;
+        for (PlayerPos player : players.values()) {
+            if (player.dimension() != key.dimension()) continue;
+            int distance = Math.max(Math.abs(player.chunkX() - chunkX), Math.abs(player.chunkZ() - chunkZ));
+            nearest = Math.min(nearest, distance);
+        }
+        return nearest;
+    }
+
+    private PriorityQueue<QueuedTask<T>> newLaneQueue() {
+        return new PriorityQueue<>(Comparator.comparingInt((QueuedTask<T> queued) -> queued.distance));
+    }
+}
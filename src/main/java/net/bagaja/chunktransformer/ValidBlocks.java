@@ -0,0 +1,103 @@
+package net.bagaja.chunktransformer;
+
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.EmptyBlockGetter;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Immutable, versioned list of blocks a chunk may be turned into. The registry-dependent part (which
+ * blocks are full cubes at all) is computed once per registry; the list is rebuilt only when
+ * {@link BlockConfig} changes, on a background thread, while readers keep using the previous snapshot.
+ */
+public final class ValidBlocks {
+    private static final class Snapshot {
+        final List<Block> blocks;
+        final int configVersion;
+
+        Snapshot(List<Block> blocks, int configVersion) {
+            this.blocks = blocks;
+            this.configVersion = configVersion;
+        }
+    }
+
+    private static volatile List<Block> candidates = null;
+    private static volatile Snapshot snapshot = null;
+
+    private ValidBlocks() {}
+
+    public static List<Block> get() {
+        Snapshot current = snapshot;
+        // Normally built at server start; the synchronous build only covers use before that
+        return current != null ? current.blocks : rebuild().blocks;
+    }
+
+    public static int getVersion() {
+        Snapshot current = snapshot;
+        return current != null ? current.configVersion : -1;
+    }
+
+    /**
+     * Called once the block registry is frozen, e.g. at server start.
+     */
+    public static void init() {
+        candidates = null;
+        rebuild();
+    }
+
+    public static CompletableFuture<Void> rebuildAsync() {
+        return CompletableFuture.runAsync(ValidBlocks::rebuild, Util.backgroundExecutor())
+                .exceptionally(e -> {
+                    ChunkTransformerMod.LOGGER.error("Failed to rebuild valid block list", e);
+                    return null;
+                });
+    }
+
+    // Synchronized so a rebuild started for an older config version can never publish after a newer one
+    private static synchronized Snapshot rebuild() {
+        BlockConfig blockConfig = ChunkTransformerMod.getBlockConfig();
+        int configVersion = blockConfig.getVersion();
+        Snapshot current = snapshot;
+        if (current != null && current.configVersion == configVersion && candidates != null) {
+            return current;
+        }
+
+        List<Block> validBlocks = new ArrayList<>();
+        for (Block block : getCandidates()) {
+            if (blockConfig.isBlockEnabled(block)) {
+                validBlocks.add(block);
+            }
+        }
+        Snapshot rebuilt = new Snapshot(List.copyOf(validBlocks), configVersion);
+        snapshot = rebuilt;
+        return rebuilt;
+    }
+
+    private static List<Block> getCandidates() {
+        List<Block> result = candidates;
+        if (result != null) return result;
+
+        List<Block> fullBlocks = new ArrayList<>();
+        ForgeRegistries.BLOCKS.forEach(block -> {
+            if (block != Blocks.AIR &&
+                    block != Blocks.SPAWNER &&
+                    block != Blocks.END_PORTAL_FRAME &&
+                    block.defaultBlockState().isCollisionShapeFullBlock(EmptyBlockGetter.INSTANCE, BlockPos.ZERO)) {
+                fullBlocks.add(block);
+            }
+        });
+        // Stable order so deterministic selection gives the same block across restarts
+        fullBlocks.sort(Comparator.comparing(block -> Objects.requireNonNull(ForgeRegistries.BLOCKS.getKey(block)).toString()));
+        result = List.copyOf(fullBlocks);
+        candidates = result;
+        return result;
+    }
+}